@@ -0,0 +1,595 @@
+package com.duplicatefinder.cli;
+
+import com.duplicatefinder.models.DirectoryGroup;
+import com.duplicatefinder.models.DuplicateGroup;
+import com.duplicatefinder.services.ExternalDuplicateEngine;
+import com.duplicatefinder.services.FileCatalog;
+import com.duplicatefinder.services.IndexMerger;
+import com.duplicatefinder.services.KeepPolicy;
+import com.duplicatefinder.services.NodeIndexFile;
+import com.duplicatefinder.services.NodeIndexer;
+import com.duplicatefinder.services.ResultExporter;
+import com.duplicatefinder.services.ScanResultFile;
+import com.duplicatefinder.services.ScanThrottle;
+import com.duplicatefinder.services.WastedSpaceTree;
+import com.duplicatefinder.utils.FileUtils;
+import com.duplicatefinder.utils.FormatUtils;
+import com.duplicatefinder.utils.PathFilter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headless entry point for scans that run without the JavaFX UI.
+ *
+ * <pre>
+ *   index --out node1.idx [--node NAME] DIR...     scan local directories into a sorted index
+ *   merge [--cross-node-only] INDEX...              join node indexes and print duplicate groups
+ *   scan [--heap-mb N] [--work-dir DIR] [--save FILE.dfr] [--catalog DB] DIR...
+ *                                                   disk-based duplicate scan with a fixed heap budget
+ *   show [--format text|ndjson|csv] FILE.dfr        print saved results, e.g. for other tools
+ *   folders [--depth N] FILE.dfr                    folders holding the most wasted space, as a tree
+ *   dedupe [--keep RULES] [--prefer DIR] [--protect DIR] [--delete] FILE.dfr
+ *                                                   print (or, with --delete, carry out) which copies go
+ *   catalog DB since PATH                           when PATH was first reported as a duplicate
+ *   catalog DB growth DIR                           wasted space under DIR in each recorded scan
+ *   catalog DB size SIZE [HASH]                     catalogued files of a size (and full hash)
+ * </pre>
+ *
+ * index and scan also take walker rules:
+ * <pre>
+ *   --include GLOB  --exclude GLOB     repeatable; "regex:..." for regular expressions, trailing / for directories
+ *   --no-default-excludes              do not skip dot directories, node_modules, target, ...
+ *   --min-size SIZE  --max-size SIZE   e.g. 100k, 4m, 1g
+ *   --newer-than DAYS  --older-than DAYS
+ * </pre>
+ *
+ * and limits, which can also be changed while running by typing e.g.
+ * "max-rate 20m" or "max-threads 0" (0 is unlimited) on standard input,
+ * where "pause" and "resume" hold and continue the scan:
+ * <pre>
+ *   --max-rate SIZE  --max-files N  --max-threads N   bytes read/s, files/s, hashing threads
+ * </pre>
+ */
+public class DuplicateFinderCli {
+
+    // Groups decided (and deleted) per step of dedupe
+    private static final int DEDUPE_BATCH = 10_000;
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            printUsage();
+            System.exit(2);
+        }
+
+        try {
+            List<String> rest = new ArrayList<>(Arrays.asList(args).subList(1, args.length));
+            switch (args[0]) {
+                case "index":
+                    runIndex(rest);
+                    break;
+                case "merge":
+                    runMerge(rest);
+                    break;
+                case "scan":
+                    runScan(rest);
+                    break;
+                case "show":
+                    runShow(rest);
+                    break;
+                case "catalog":
+                    runCatalog(rest);
+                    break;
+                case "folders":
+                    runFolders(rest);
+                    break;
+                case "dedupe":
+                    runDedupe(rest);
+                    break;
+                default:
+                    printUsage();
+                    System.exit(2);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            printUsage();
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void runIndex(List<String> args) throws IOException {
+        String node = defaultNodeName();
+        Path out = null;
+        List<Path> roots = new ArrayList<>();
+        FilterArgs filter = new FilterArgs();
+        ThrottleArgs throttle = new ThrottleArgs();
+
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            int consumed = Math.max(filter.parse(args, i), throttle.parse(args, i));
+            if (consumed >= 0) {
+                i = consumed;
+            } else if (arg.equals("--node")) {
+                node = requireValue(args, ++i, arg);
+            } else if (arg.equals("--out")) {
+                out = Paths.get(requireValue(args, ++i, arg));
+            } else {
+                roots.add(Paths.get(arg));
+            }
+        }
+        if (out == null) throw new IllegalArgumentException("index needs --out");
+        if (roots.isEmpty()) throw new IllegalArgumentException("index needs at least one directory");
+
+        Path tempDir = out.toAbsolutePath().getParent();
+        NodeIndexer indexer = new NodeIndexer(node, roots, tempDir != null ? tempDir : Paths.get("."));
+        indexer.setPathFilter(filter.build());
+        indexer.setThrottle(throttle.start());
+        indexer.writeIndex(out, System.err::println);
+    }
+
+    private static void runMerge(List<String> args) throws IOException {
+        boolean crossNodeOnly = false;
+        List<Path> indexes = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--cross-node-only")) {
+                crossNodeOnly = true;
+            } else {
+                Path index = Paths.get(arg);
+                if (!Files.isRegularFile(index)) throw new IllegalArgumentException("No such index: " + arg);
+                indexes.add(index);
+            }
+        }
+        if (indexes.isEmpty()) throw new IllegalArgumentException("merge needs at least one index file");
+
+        long[] wasted = new long[1];
+        long groups = IndexMerger.merge(indexes, crossNodeOnly, group -> {
+            NodeIndexFile.Entry first = group.get(0);
+            wasted[0] += first.getSize() * (group.size() - 1);
+            System.out.printf("%s %s %d copies%n", first.getHashHex(),
+                    FormatUtils.formatFileSize(first.getSize()), group.size());
+            for (NodeIndexFile.Entry entry : group) {
+                System.out.printf("  %s:%s%n", entry.getNode(), entry.getPath());
+            }
+        });
+        System.err.printf("%d duplicate groups, %s wasted%n", groups, FormatUtils.formatFileSize(wasted[0]));
+    }
+
+    private static void runScan(List<String> args) throws IOException {
+        long heapBytes = 256L * 1024 * 1024;
+        Path workDir = Paths.get(System.getProperty("java.io.tmpdir"));
+        Path save = null;
+        Path catalogPath = null;
+        List<Path> roots = new ArrayList<>();
+        FilterArgs filter = new FilterArgs();
+        ThrottleArgs throttle = new ThrottleArgs();
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            int consumed = Math.max(filter.parse(args, i), throttle.parse(args, i));
+            if (consumed >= 0) {
+                i = consumed;
+            } else if (arg.equals("--heap-mb")) {
+                heapBytes = Long.parseLong(requireValue(args, ++i, arg)) * 1024 * 1024;
+            } else if (arg.equals("--work-dir")) {
+                workDir = Paths.get(requireValue(args, ++i, arg));
+            } else if (arg.equals("--save")) {
+                save = Paths.get(requireValue(args, ++i, arg));
+            } else if (arg.equals("--catalog")) {
+                catalogPath = Paths.get(requireValue(args, ++i, arg));
+            } else {
+                roots.add(Paths.get(arg).toAbsolutePath());
+            }
+        }
+        if (roots.isEmpty()) throw new IllegalArgumentException("scan needs at least one directory");
+
+        long[] wasted = new long[1];
+        ExternalDuplicateEngine engine = new ExternalDuplicateEngine(roots, workDir, heapBytes,
+                Runtime.getRuntime().availableProcessors(), System.err::println, () -> false);
+        engine.setPathFilter(filter.build());
+        engine.setThrottle(throttle.start());
+        FileCatalog catalog = catalogPath != null ? openCatalog(catalogPath) : null;
+        if (catalog != null) {
+            List<File> rootFiles = new ArrayList<>();
+            roots.forEach(root -> rootFiles.add(root.toFile()));
+            try {
+                catalog.beginScan(rootFiles);
+            } catch (SQLException e) {
+                catalog.close();
+                throw new IOException("Cannot record scan in catalog: " + e.getMessage(), e);
+            }
+        }
+
+        // Groups are streamed to the result file as the engine reports them
+        try (ScanResultFile.Writer writer = save != null ? new ScanResultFile.Writer(save) : null) {
+            long groups = engine.run((size, hash, paths) -> {
+                List<File> files = new ArrayList<>(paths.size());
+                paths.forEach(path -> files.add(new File(path)));
+                DuplicateGroup group = new DuplicateGroup(size, hash, files);
+                wasted[0] += group.getWastedSize();
+                printGroup(group);
+                if (writer != null) writer.write(group);
+                if (catalog != null) catalog.recordGroups(List.of(group));
+            });
+            System.err.printf("%d duplicate groups, %s wasted%n", groups, FormatUtils.formatFileSize(wasted[0]));
+        } finally {
+            if (catalog != null) catalog.close();
+        }
+        if (save != null) System.err.println("Saved results to " + save);
+    }
+
+    private static void runShow(List<String> args) throws IOException {
+        String format = "text";
+        Path file = null;
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            if (arg.equals("--format")) {
+                format = requireValue(args, ++i, arg);
+            } else {
+                file = Paths.get(arg);
+            }
+        }
+        if (file == null) throw new IllegalArgumentException("show needs a result file");
+
+        try (ScanResultFile.Reader reader = new ScanResultFile.Reader(file)) {
+            switch (format) {
+                case "text":
+                    for (DuplicateGroup group : reader.groups()) {
+                        printGroup(group);
+                    }
+                    break;
+                case "ndjson":
+                case "csv":
+                    ResultExporter.Format exportFormat = format.equals("csv") ? ResultExporter.Format.CSV : ResultExporter.Format.NDJSON;
+                    ResultExporter.write(exportFormat, reader.groups(),
+                            new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown format: " + format);
+            }
+            System.err.printf("%d duplicate groups, %d files, %s wasted%n", reader.getGroupCount(),
+                    reader.getFileCount(), FormatUtils.formatFileSize(reader.getWastedBytes()));
+        }
+    }
+
+    private static void runFolders(List<String> args) throws IOException {
+        int depth = 4;
+        Path file = null;
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            if (arg.equals("--depth")) {
+                depth = Integer.parseInt(requireValue(args, ++i, arg));
+            } else {
+                file = Paths.get(arg);
+            }
+        }
+        if (file == null) throw new IllegalArgumentException("folders needs a result file");
+
+        WastedSpaceTree tree = new WastedSpaceTree();
+        try (ScanResultFile.Reader reader = new ScanResultFile.Reader(file)) {
+            tree.addAll(reader.groups());
+        }
+        WastedSpaceTree.Node top = tree.getRoot();
+        // Start at the first folder that branches rather than at the filesystem root
+        List<WastedSpaceTree.Node> children;
+        while ((children = tree.children(top)).size() == 1) {
+            top = children.get(0);
+        }
+        printFolder(tree, top, "", depth);
+    }
+
+    private static void printFolder(WastedSpaceTree tree, WastedSpaceTree.Node node, String indent, int depth) {
+        System.out.printf("%10s %8d  %s%s%n", FormatUtils.formatFileSize(node.getWastedBytes()),
+                node.getDuplicateFiles(), indent, indent.isEmpty() ? node.getPath() : node.getName());
+        if (depth <= 0) return;
+        for (WastedSpaceTree.Node child : tree.children(node)) {
+            printFolder(tree, child, indent + "  ", depth - 1);
+        }
+    }
+
+    /**
+     * Apply a keep policy to saved results. Groups are decided in parallel a
+     * batch at a time, directory groups first, so the whole plan never has to
+     * be in memory.
+     */
+    private static void runDedupe(List<String> args) throws IOException {
+        String rules = "";
+        List<String> preferred = new ArrayList<>();
+        List<String> protectedPaths = new ArrayList<>();
+        boolean delete = false;
+        Path file = null;
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            switch (arg) {
+                case "--keep":
+                    rules = requireValue(args, ++i, arg);
+                    break;
+                case "--prefer":
+                    preferred.add(requireValue(args, ++i, arg));
+                    break;
+                case "--protect":
+                    protectedPaths.add(requireValue(args, ++i, arg));
+                    break;
+                case "--delete":
+                    delete = true;
+                    break;
+                default:
+                    file = Paths.get(arg);
+            }
+        }
+        if (file == null) throw new IllegalArgumentException("dedupe needs a result file");
+        KeepPolicy policy = KeepPolicy.parse(rules, preferred, protectedPaths);
+
+        long removed = 0;
+        long freed = 0;
+        try (ScanResultFile.Reader reader = new ScanResultFile.Reader(file)) {
+            List<DuplicateGroup> groups = reader.groups();
+            KeepPolicy.Plan plan = policy.newPlan();
+            // Directory groups first, so the files inside them are decided knowing which copies go
+            for (boolean directories : new boolean[] {true, false}) {
+                for (int start = 0; start < groups.size(); start += DEDUPE_BATCH) {
+                    List<DuplicateGroup> batch = new ArrayList<>();
+                    for (DuplicateGroup group : groups.subList(start, Math.min(groups.size(), start + DEDUPE_BATCH))) {
+                        if ((group instanceof DirectoryGroup) == directories) batch.add(group);
+                    }
+                    if (batch.isEmpty()) continue;
+                    List<Path> paths = new ArrayList<>();
+                    for (KeepPolicy.Decision decision : plan.decideAll(batch)) {
+                        if (decision.getRemove().isEmpty()) continue;
+                        for (File kept : decision.getKeep()) {
+                            System.out.printf("keep   %s%n", kept.getPath());
+                        }
+                        for (File removal : decision.getRemove()) {
+                            System.out.printf("remove %s%n", removal.getPath());
+                            paths.add(removal.toPath());
+                        }
+                        removed += decision.getRemove().size();
+                        if (!delete) freed += decision.getFreedBytes();
+                    }
+                    if (delete) freed += FileUtils.deleteFiles(paths);
+                }
+            }
+        }
+        System.err.printf("%s %d files, %s%s%n", delete ? "Deleted" : "Would delete", removed,
+                FormatUtils.formatFileSize(freed), delete ? " freed" : " (run again with --delete)");
+    }
+
+    private static void runCatalog(List<String> args) throws IOException {
+        if (args.size() < 3) throw new IllegalArgumentException("catalog needs a database, a query and its argument");
+        try (FileCatalog catalog = openCatalog(Paths.get(args.get(0)))) {
+            String argument = args.get(2);
+            switch (args.get(1)) {
+                case "since":
+                    Timestamp since = catalog.firstSeenAsDuplicate(Paths.get(argument).toAbsolutePath().toString());
+                    System.out.println(since != null ? "First reported as a duplicate " + since
+                            : "Never reported as a duplicate");
+                    break;
+                case "growth":
+                    String directory = Paths.get(argument).toAbsolutePath().toString();
+                    for (Map.Entry<Timestamp, Long> scan : catalog.wastedSpaceHistory(directory).entrySet()) {
+                        System.out.printf("%s %s%n", scan.getKey(), FormatUtils.formatFileSize(scan.getValue()));
+                    }
+                    break;
+                case "size":
+                    Long fullHash = args.size() > 3 ? Long.parseUnsignedLong(args.get(3), 16) : null;
+                    for (FileCatalog.Entry entry : catalog.findBySize(FormatUtils.parseFileSize(argument), fullHash)) {
+                        System.out.printf("%s %s%n", entry.getFullHash() != null
+                                ? Long.toHexString(entry.getFullHash()) : "-", entry.getPath());
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown catalog query: " + args.get(1));
+            }
+        } catch (SQLException e) {
+            throw new IOException("Catalog query failed: " + e.getMessage(), e);
+        }
+    }
+
+    private static FileCatalog openCatalog(Path database) throws IOException {
+        try {
+            return new FileCatalog(database);
+        } catch (SQLException e) {
+            throw new IOException("Cannot open catalog " + database + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void printGroup(DuplicateGroup group) {
+        System.out.printf("%s %s %d copies%n", group.getFileHash(), FormatUtils.formatFileSize(group.getSize()),
+                group.getFileCount());
+        for (File file : group.getFiles()) {
+            System.out.printf("  %s%n", file.getPath());
+        }
+    }
+
+    private static String requireValue(List<String> args, int index, String option) {
+        if (index >= args.size()) throw new IllegalArgumentException(option + " needs a value");
+        return args.get(index);
+    }
+
+    private static String defaultNodeName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "local";
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage:");
+        System.err.println("  index --out FILE [--node NAME] DIR...");
+        System.err.println("  merge [--cross-node-only] INDEX...");
+        System.err.println("  scan [--heap-mb N] [--work-dir DIR] [--save FILE.dfr] [--catalog DB] DIR...");
+        System.err.println("  show [--format text|ndjson|csv] FILE.dfr");
+        System.err.println("  catalog DB since PATH | growth DIR | size SIZE [HASH]");
+        System.err.println("  folders [--depth N] FILE.dfr");
+        System.err.println("  dedupe [--keep preferred,oldest,newest,shortest-path] [--prefer DIR]... [--protect DIR]... [--delete] FILE.dfr");
+        System.err.println("Rules for index and scan:");
+        System.err.println("  --include GLOB --exclude GLOB --no-default-excludes");
+        System.err.println("  --min-size SIZE --max-size SIZE --newer-than DAYS --older-than DAYS");
+        System.err.println("Limits for index and scan (also accepted on stdin while running, 0 = unlimited;");
+        System.err.println("  \"pause\" and \"resume\" on stdin hold and continue the scan):");
+        System.err.println("  --max-rate SIZE --max-files N --max-threads N");
+    }
+
+    /**
+     * Collects the walker rule options shared by index and scan.
+     */
+    private static class FilterArgs {
+        private final List<String> includes = new ArrayList<>();
+        private final List<String> excludes = new ArrayList<>();
+        private boolean defaultExcludes = true;
+        private long minSize = 0;
+        private long maxSize = Long.MAX_VALUE;
+        private long modifiedAfter = Long.MIN_VALUE;
+        private long modifiedBefore = Long.MAX_VALUE;
+
+        /**
+         * @return index of the last argument consumed, or -1 if args[i] is not a rule option
+         */
+        int parse(List<String> args, int i) {
+            String arg = args.get(i);
+            long now = System.currentTimeMillis();
+            switch (arg) {
+                case "--include":
+                    includes.add(requireValue(args, i + 1, arg));
+                    return i + 1;
+                case "--exclude":
+                    excludes.add(requireValue(args, i + 1, arg));
+                    return i + 1;
+                case "--no-default-excludes":
+                    defaultExcludes = false;
+                    return i;
+                case "--min-size":
+                    minSize = FormatUtils.parseFileSize(requireValue(args, i + 1, arg));
+                    return i + 1;
+                case "--max-size":
+                    maxSize = FormatUtils.parseFileSize(requireValue(args, i + 1, arg));
+                    return i + 1;
+                case "--newer-than":
+                    modifiedAfter = now - days(requireValue(args, i + 1, arg));
+                    return i + 1;
+                case "--older-than":
+                    modifiedBefore = now - days(requireValue(args, i + 1, arg));
+                    return i + 1;
+                default:
+                    return -1;
+            }
+        }
+
+        PathFilter build() {
+            List<String> allExcludes = new ArrayList<>(excludes);
+            if (defaultExcludes) allExcludes.addAll(PathFilter.DEFAULT_EXCLUDES);
+            PathFilter filter = new PathFilter(includes, allExcludes);
+            filter.setSizeRange(minSize, maxSize);
+            filter.setModifiedRange(modifiedAfter, modifiedBefore);
+            return filter;
+        }
+
+        private static long days(String value) {
+            try {
+                return (long) (Double.parseDouble(value) * 24 * 60 * 60 * 1000);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number of days: " + value);
+            }
+        }
+    }
+    /**
+     * Collects the rate and thread limits shared by index and scan.
+     */
+    private static class ThrottleArgs {
+        private final ScanThrottle throttle = new ScanThrottle();
+
+        /**
+         * @return index of the last argument consumed, or -1 if args[i] is not a limit option
+         */
+        int parse(List<String> args, int i) {
+            String arg = args.get(i);
+            if (!arg.startsWith("--") || !set(arg.substring(2), null)) return -1;
+            set(arg.substring(2), requireValue(args, i + 1, arg));
+            return i + 1;
+        }
+
+        /**
+         * Apply the given limits, then keep reading "max-rate 20m" style lines
+         * from standard input so the limits can be changed while running, and
+         * "pause" and "resume" lines to hold the scan where it is.
+         */
+        ScanThrottle start() {
+            Thread reader = new Thread(() -> {
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(System.in))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        String[] parts = line.trim().split("\\s+");
+                        if (parts[0].equals("pause") || parts[0].equals("resume")) {
+                            if (parts[0].equals("pause")) {
+                                throttle.pause();
+                            } else {
+                                throttle.resume();
+                            }
+                            System.err.println(throttle.isPaused() ? "Paused, type \"resume\" to continue" : "Resumed");
+                            continue;
+                        }
+                        try {
+                            if (parts.length != 2 || !set(parts[0], parts[1])) {
+                                throw new IllegalArgumentException("expected max-rate, max-files or max-threads and a value");
+                            }
+                            System.err.println("Limits: " + throttle);
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("Ignored \"" + line + "\": " + e.getMessage());
+                        }
+                    }
+                } catch (IOException e) {
+                    // No usable standard input, the limits stay as given
+                }
+            }, "limit-reader");
+            reader.setDaemon(true);
+            reader.start();
+            return throttle;
+        }
+
+        /**
+         * @param value null to only check whether name is a limit
+         * @return false if name is not a limit
+         */
+        private boolean set(String name, String value) {
+            switch (name) {
+                case "max-rate":
+                    if (value != null) throttle.setMaxBytesPerSecond(FormatUtils.parseFileSize(value));
+                    return true;
+                case "max-files":
+                    if (value != null) throttle.setMaxFilesPerSecond(count(value));
+                    return true;
+                case "max-threads":
+                    if (value != null) throttle.setMaxThreads((int) Math.min(Integer.MAX_VALUE, count(value)));
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        private static long count(String value) {
+            try {
+                long count = Long.parseLong(value);
+                if (count >= 0) return count;
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            throw new IllegalArgumentException("Not a count: " + value);
+        }
+    }
+}
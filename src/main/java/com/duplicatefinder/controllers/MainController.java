@@ -1,11 +1,24 @@
 package com.duplicatefinder.controllers;
 
 import com.duplicatefinder.models.DuplicateGroup;
+import com.duplicatefinder.models.ScanMode;
+import com.duplicatefinder.models.ScanOptions;
+import com.duplicatefinder.services.ArchiveScanner;
 import com.duplicatefinder.services.DuplicateFinderTask;
 import com.duplicatefinder.services.FileIconService;
+import com.duplicatefinder.services.KeepPolicy;
+import com.duplicatefinder.services.ResultExporter;
+import com.duplicatefinder.services.ScanResultFile;
+import com.duplicatefinder.services.ScanThrottle;
+import com.duplicatefinder.services.SharedContentFinderTask;
+import com.duplicatefinder.services.SimilarImageFinderTask;
+import com.duplicatefinder.services.ThumbnailService;
+import com.duplicatefinder.services.WastedSpaceTree;
 import com.duplicatefinder.utils.FileUtils;
 import com.duplicatefinder.utils.FormatUtils;
+import com.duplicatefinder.utils.PathFilter;
 import javafx.application.Platform;
+import javafx.beans.property.SimpleLongProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -16,26 +29,27 @@ import javafx.geometry.Pos;
 import javafx.scene.Node;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
 import javafx.util.Callback;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 public class MainController {
 
@@ -44,6 +58,23 @@ public class MainController {
     private Button selectDirBtn;
     private Button scanBtn;
     private Button deleteAllBtn;
+    private Button pauseBtn;
+    private ComboBox<ScanMode> scanModeBox;
+    private CheckBox scanArchivesBox;
+    private CheckBox lowMemoryBox;
+    private TextField includeField;
+    private TextField excludeField;
+    private TextField minSizeField;
+    private CheckBox oneFileSystemBox;
+    private CheckBox asyncIoBox;
+    private CheckBox virtualThreadsBox;
+    private CheckBox catalogBox;
+    private TextField maxRateField;
+    private TextField maxFilesField;
+    private TextField maxThreadsField;
+    private TextField keepRulesField;
+    private TextField preferField;
+    private TextField protectField;
 
     private ListView<File> directoriesListView;
     private ProgressBar progressBar;
@@ -56,6 +87,7 @@ public class MainController {
     private TableColumn<DuplicateGroup, Number> countColumn;
 
     private TableView<File> filesTableView;
+    private TreeTableView<WastedSpaceTree.Node> foldersTreeView;
     private TableColumn<File, ImageView> thumbnailColumn;
     private TableColumn<File, String> nameColumn;
     private TableColumn<File, String> pathColumn;
@@ -68,8 +100,16 @@ public class MainController {
     private ObservableList<File> currentFiles = FXCollections.observableArrayList();
 
 //    private FileScanner currentScanner;
-    private DuplicateFinderTask duplicateFinderTask;
+    private Task<List<DuplicateGroup>> duplicateFinderTask;
     private FileIconService fileIconService;
+    private ThumbnailService thumbnailService;
+    private final ArchiveScanner archiveScanner = new ArchiveScanner();
+    // Shared with the running scan, so limits changed mid-scan take effect at once
+    private final ScanThrottle scanThrottle = new ScanThrottle();
+    // Wasted space per folder; a running scan fills it in as groups are found
+    private WastedSpaceTree wastedSpaceTree = new WastedSpaceTree();
+    // Set while the table shows a saved result file rather than a fresh scan
+    private ScanResultFile.Reader openedResults;
 
     // Constructor
     public MainController() {
@@ -80,6 +120,7 @@ public class MainController {
     private void initialize() {
         // Initialize services
         fileIconService = new FileIconService();
+        thumbnailService = new ThumbnailService(fileIconService, getThumbnailDiskCacheDir());
 
         // Build the UI
         root = createUI();
@@ -122,6 +163,9 @@ public class MainController {
 
         // Button Row
         HBox buttonRow = createButtonRow();
+        HBox filterRow = createFilterRow();
+        HBox throttleRow = createThrottleRow();
+        HBox keepRow = createKeepRow();
 
         // Selected Directories
         VBox dirSection = createDirectorySection();
@@ -129,7 +173,7 @@ public class MainController {
         // Progress Section
         VBox progressSection = createProgressSection();
 
-        topPanel.getChildren().addAll(buttonRow, dirSection, progressSection);
+        topPanel.getChildren().addAll(buttonRow, filterRow, throttleRow, keepRow, dirSection, progressSection);
         return topPanel;
     }
 
@@ -179,7 +223,20 @@ public class MainController {
         return progressSection;
     }
 
-    private SplitPane createCenterPanel() {
+    private TabPane createCenterPanel() {
+        Tab groupsTab = new Tab("Groups", createGroupsSplitPane());
+        Tab foldersTab = new Tab("Folders", createFoldersTree());
+        // The tree is rebuilt when shown, so a running scan's latest totals appear
+        foldersTab.setOnSelectionChanged(e -> {
+            if (foldersTab.isSelected()) refreshFolders();
+        });
+
+        TabPane tabPane = new TabPane(groupsTab, foldersTab);
+        tabPane.setTabClosingPolicy(TabPane.TabClosingPolicy.UNAVAILABLE);
+        return tabPane;
+    }
+
+    private SplitPane createGroupsSplitPane() {
         SplitPane splitPane = new SplitPane();
         splitPane.setOrientation(Orientation.HORIZONTAL);
         splitPane.setDividerPositions(0.25);
@@ -194,6 +251,48 @@ public class MainController {
         return splitPane;
     }
 
+    private TreeTableView<WastedSpaceTree.Node> createFoldersTree() {
+        foldersTreeView = new TreeTableView<>();
+
+        TreeTableColumn<WastedSpaceTree.Node, String> folderColumn = new TreeTableColumn<>("Folder");
+        folderColumn.prefWidthProperty().bind(foldersTreeView.widthProperty().multiply(.6));
+        folderColumn.setCellValueFactory(cellData -> {
+            WastedSpaceTree.Node node = cellData.getValue().getValue();
+            return new SimpleStringProperty(node.getParent() == null ? "All folders" : node.getName());
+        });
+
+        TreeTableColumn<WastedSpaceTree.Node, String> wastedColumn = new TreeTableColumn<>("Wasted");
+        wastedColumn.prefWidthProperty().bind(foldersTreeView.widthProperty().multiply(.2));
+        wastedColumn.setCellValueFactory(cellData ->
+                new SimpleStringProperty(FormatUtils.formatFileSize(cellData.getValue().getValue().getWastedBytes())));
+
+        TreeTableColumn<WastedSpaceTree.Node, Number> filesColumn = new TreeTableColumn<>("Duplicate files");
+        filesColumn.prefWidthProperty().bind(foldersTreeView.widthProperty().multiply(.18));
+        filesColumn.setCellValueFactory(cellData ->
+                new SimpleLongProperty(cellData.getValue().getValue().getDuplicateFiles()));
+
+        foldersTreeView.getColumns().addAll(folderColumn, wastedColumn, filesColumn);
+        foldersTreeView.setPlaceholder(new Label("No exact duplicates"));
+        return foldersTreeView;
+    }
+
+    /**
+     * Show the current rollup, opened down to the first folder that branches.
+     */
+    private void refreshFolders() {
+        if (wastedSpaceTree.getWastedBytes() == 0) {
+            foldersTreeView.setRoot(null);
+            return;
+        }
+        TreeItem<WastedSpaceTree.Node> rootItem = new FolderTreeItem(wastedSpaceTree, wastedSpaceTree.getRoot());
+        TreeItem<WastedSpaceTree.Node> item = rootItem;
+        while (item != null) {
+            item.setExpanded(true);
+            item = item.getChildren().size() == 1 ? item.getChildren().get(0) : null;
+        }
+        foldersTreeView.setRoot(rootItem);
+    }
+
     private VBox createGroupsPanel() {
         VBox groupsPanel = new VBox(5);
         groupsPanel.setPadding(new Insets(10));
@@ -269,22 +368,7 @@ public class MainController {
         thumbnailColumn.setCellFactory(new Callback<>() {
             @Override
             public TableCell<File, ImageView> call(TableColumn<File, ImageView> param) {
-                return new TableCell<>() {
-                    @Override
-                    protected void updateItem(ImageView item, boolean empty) {
-                        super.updateItem(item, empty);
-                        if (empty || getTableRow() == null) {
-                            setGraphic(null);
-                        } else {
-                            File fileData = getTableRow().getItem();
-                            if (fileData != null && fileIconService != null) {
-                                loadThumbnailForCell(fileData, this);
-                            } else {
-                                setGraphic(null);
-                            }
-                        }
-                    }
-                };
+                return new ThumbnailCell();
             }
         });
 
@@ -307,13 +391,11 @@ public class MainController {
         // Modified column
         modifiedColumn = new TableColumn<>("Modified");
         modifiedColumn.prefWidthProperty().bind(table.widthProperty().multiply(.15));
-        modifiedColumn.setCellValueFactory(cellData ->
-        {
-            try {
-                return new SimpleStringProperty(LocalDateTime.ofInstant(Files.getLastModifiedTime(cellData.getValue().toPath()).toInstant(), ZoneId.systemDefault()).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+        // File.lastModified also works for archive entries, which have no path of their own
+        modifiedColumn.setCellValueFactory(cellData -> {
+            long modified = cellData.getValue().lastModified();
+            if (modified <= 0) return new SimpleStringProperty("");
+            return new SimpleStringProperty(LocalDateTime.ofInstant(Instant.ofEpochMilli(modified), ZoneId.systemDefault()).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
         });
 
         // Add columns to table
@@ -386,6 +468,27 @@ public class MainController {
         startScanning();
     }
 
+    /**
+     * Pausing holds the scan's threads where they are, so resuming loses nothing.
+     */
+    private void handlePauseScan() {
+        if (duplicateFinderTask == null || !duplicateFinderTask.isRunning()) return;
+        if (scanThrottle.isPaused()) {
+            scanThrottle.resume();
+            pauseBtn.setText("Pause");
+            updateStatus("Scan resumed");
+        } else {
+            scanThrottle.pause();
+            pauseBtn.setText("Resume");
+            updateStatus("Scan paused");
+        }
+    }
+
+    private void handleCancelScan() {
+        if (duplicateFinderTask == null || !duplicateFinderTask.isRunning()) return;
+        duplicateFinderTask.cancel();
+    }
+
     private void handleDeleteAll() {
         deleteAllDuplicates();
     }
@@ -407,18 +510,260 @@ public class MainController {
         scanBtn = createButton("Find  Duplicates", "primary-button");
         scanBtn.setOnAction(e -> handleStartScan());
 
+        pauseBtn = createButton("Pause", "control-button");
+        pauseBtn.setOnAction(e -> handlePauseScan());
+
+        Button cancelBtn = createButton("Cancel", "control-button");
+        cancelBtn.setOnAction(e -> handleCancelScan());
+
         deleteAllBtn = createButton("Delete All", "danger-button");
         deleteAllBtn.setOnAction(e -> handleDeleteAll());
 
+        Button saveResultsBtn = createButton("Save Results", "control-button");
+        saveResultsBtn.setOnAction(e -> handleSaveResults());
+
+        Button openResultsBtn = createButton("Open Results", "control-button");
+        openResultsBtn.setOnAction(e -> handleOpenResults());
+
+        scanModeBox = new ComboBox<>(FXCollections.observableArrayList(ScanMode.values()));
+        scanModeBox.setValue(ScanMode.EXACT_DUPLICATES);
+        scanModeBox.getStyleClass().add("scan-mode-box");
+
+        scanArchivesBox = new CheckBox("Look inside archives");
+
+        // Disk-based engine for very large trees; it does not support the extra modes
+        lowMemoryBox = new CheckBox("Low memory (disk-based)");
 
         buttonRow.getChildren().addAll(
-                selectDirBtn, clearDirBtn, scanBtn,
-                 deleteAllBtn
+                selectDirBtn, clearDirBtn, scanModeBox, scanArchivesBox, lowMemoryBox, scanBtn, pauseBtn, cancelBtn,
+                 deleteAllBtn, saveResultsBtn, openResultsBtn
         );
 
         return buttonRow;
     }
 
+    private HBox createFilterRow() {
+        HBox filterRow = new HBox(10);
+        filterRow.setAlignment(Pos.CENTER_LEFT);
+
+        includeField = new TextField();
+        includeField.setPromptText("All files (e.g. *.jpg, *.mp4)");
+        excludeField = new TextField(String.join(", ", PathFilter.DEFAULT_EXCLUDES));
+        excludeField.setTooltip(new Tooltip(
+                "Comma-separated globs, or regex:... ; a trailing / matches directories only"));
+        minSizeField = new TextField();
+        minSizeField.setPromptText("e.g. 100k");
+        minSizeField.setPrefColumnCount(6);
+        oneFileSystemBox = new CheckBox("Stay on one filesystem");
+        asyncIoBox = new CheckBox("Async reads");
+        asyncIoBox.setTooltip(new Tooltip("Keep many reads in flight; faster on network storage"));
+        virtualThreadsBox = new CheckBox("Virtual threads");
+        virtualThreadsBox.setTooltip(new Tooltip("Walk and hash on virtual threads, with per-disk read limits"));
+        catalogBox = new CheckBox("Remember scans");
+        catalogBox.setTooltip(new Tooltip("Record scans in " + getCatalogPath()
+                + " and reuse hashes of unchanged files"));
+        HBox.setHgrow(includeField, Priority.ALWAYS);
+        HBox.setHgrow(excludeField, Priority.ALWAYS);
+
+        filterRow.getChildren().addAll(
+                new Label("Include:"), includeField,
+                new Label("Exclude:"), excludeField,
+                new Label("Min size:"), minSizeField,
+                oneFileSystemBox, asyncIoBox, virtualThreadsBox, catalogBox
+        );
+        return filterRow;
+    }
+
+    private HBox createThrottleRow() {
+        HBox throttleRow = new HBox(10);
+        throttleRow.setAlignment(Pos.CENTER_LEFT);
+
+        maxRateField = new TextField();
+        maxRateField.setPromptText("e.g. 50m");
+        maxRateField.setPrefColumnCount(6);
+        maxFilesField = new TextField();
+        maxFilesField.setPromptText("unlimited");
+        maxFilesField.setPrefColumnCount(6);
+        maxThreadsField = new TextField();
+        maxThreadsField.setPromptText("all");
+        maxThreadsField.setPrefColumnCount(4);
+
+        // Applies to the running scan too
+        Button applyBtn = createButton("Apply Limits", "control-button");
+        applyBtn.setOnAction(e -> {
+            if (applyThrottle()) updateStatus("Scan limits: " + scanThrottle);
+        });
+
+        throttleRow.getChildren().addAll(
+                new Label("Max read/s:"), maxRateField,
+                new Label("Max files/s:"), maxFilesField,
+                new Label("Max threads:"), maxThreadsField,
+                applyBtn
+        );
+        return throttleRow;
+    }
+
+    private HBox createKeepRow() {
+        HBox keepRow = new HBox(10);
+        keepRow.setAlignment(Pos.CENTER_LEFT);
+
+        keepRulesField = new TextField();
+        keepRulesField.setPromptText("first found (e.g. oldest, shortest-path)");
+        keepRulesField.setTooltip(new Tooltip(
+                "Which copy Delete All keeps: preferred, oldest, newest, shortest-path; later rules break ties"));
+        preferField = new TextField();
+        preferField.setPromptText("directories, separated by " + File.pathSeparator);
+        preferField.setTooltip(new Tooltip("Keep the copy under the first of these directories"));
+        protectField = new TextField();
+        protectField.setPromptText("directories, separated by " + File.pathSeparator);
+        protectField.setTooltip(new Tooltip("Nothing under these paths is ever deleted"));
+        HBox.setHgrow(keepRulesField, Priority.ALWAYS);
+        HBox.setHgrow(preferField, Priority.ALWAYS);
+        HBox.setHgrow(protectField, Priority.ALWAYS);
+
+        keepRow.getChildren().addAll(
+                new Label("Keep:"), keepRulesField,
+                new Label("Prefer under:"), preferField,
+                new Label("Never delete under:"), protectField
+        );
+        return keepRow;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a rule name is unknown
+     */
+    private KeepPolicy buildKeepPolicy() {
+        return KeepPolicy.parse(keepRulesField.getText(),
+                List.of(preferField.getText().split(File.pathSeparator)),
+                List.of(protectField.getText().split(File.pathSeparator)));
+    }
+
+    /**
+     * Copy the limit fields into the shared throttle; blank means unlimited.
+     *
+     * @return false (after telling the user) if a field is invalid
+     */
+    private boolean applyThrottle() {
+        try {
+            long maxRate = maxRateField.getText().isBlank() ? 0 : FormatUtils.parseFileSize(maxRateField.getText());
+            long maxFiles = maxFilesField.getText().isBlank() ? 0 : Long.parseLong(maxFilesField.getText().trim());
+            int maxThreads = maxThreadsField.getText().isBlank() ? 0 : Integer.parseInt(maxThreadsField.getText().trim());
+            if (maxFiles < 0 || maxThreads < 0) throw new IllegalArgumentException("Limits cannot be negative");
+            scanThrottle.setMaxBytesPerSecond(maxRate);
+            scanThrottle.setMaxFilesPerSecond(maxFiles);
+            scanThrottle.setMaxThreads(maxThreads);
+            return true;
+        } catch (IllegalArgumentException e) {
+            showAlert("Invalid limit: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if a pattern or the size is invalid
+     */
+    private PathFilter buildPathFilter() {
+        PathFilter filter = new PathFilter(PathFilter.splitPatterns(includeField.getText()),
+                PathFilter.splitPatterns(excludeField.getText()));
+        if (!minSizeField.getText().isBlank()) {
+            filter.setSizeRange(FormatUtils.parseFileSize(minSizeField.getText()), Long.MAX_VALUE);
+        }
+        return filter;
+    }
+
+    private void handleSaveResults() {
+        if (duplicateGroups.isEmpty()) {
+            showAlert("There are no results to save.");
+            return;
+        }
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Save Results");
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Scan results (*.dfr)", "*" + ScanResultFile.EXTENSION),
+                new FileChooser.ExtensionFilter("NDJSON (*.ndjson)", "*.ndjson"),
+                new FileChooser.ExtensionFilter("CSV (*.csv)", "*.csv"));
+        chooser.setInitialFileName("duplicates" + ScanResultFile.EXTENSION);
+        File target = chooser.showSaveDialog(root.getScene().getWindow());
+        if (target == null) return;
+
+        List<DuplicateGroup> groups = List.copyOf(duplicateGroups);
+        Task<Void> saveTask = new Task<>() {
+            @Override
+            protected Void call() throws IOException {
+                ResultExporter.export(target.toPath(), groups);
+                return null;
+            }
+        };
+        saveTask.setOnSucceeded(e -> updateStatus("Saved " + groups.size() + " groups to " + target));
+        saveTask.setOnFailed(e -> showAlert("Could not save results: " + saveTask.getException().getMessage()));
+        Thread saveThread = new Thread(saveTask, "save-results");
+        saveThread.setDaemon(true);
+        saveThread.start();
+        updateStatus("Saving results to " + target + "...");
+    }
+
+    private void handleOpenResults() {
+        if (duplicateFinderTask != null && duplicateFinderTask.isRunning()) {
+            showAlert("Scan is already in progress.");
+            return;
+        }
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Open Results");
+        chooser.getExtensionFilters().add(
+                new FileChooser.ExtensionFilter("Scan results (*.dfr)", "*" + ScanResultFile.EXTENSION));
+        File source = chooser.showOpenDialog(root.getScene().getWindow());
+        if (source == null) return;
+
+        ScanResultFile.Reader reader;
+        try {
+            reader = new ScanResultFile.Reader(source.toPath());
+        } catch (IOException e) {
+            showAlert("Could not open results: " + e.getMessage());
+            return;
+        }
+        clearPreviousResults();
+        // Groups are decoded from the mapped file as rows are shown, nothing is loaded up front
+        openedResults = reader;
+        showGroups(FXCollections.observableList(reader.groups()));
+        if (!duplicateGroups.isEmpty()) {
+            groupsTableView.getSelectionModel().select(0);
+        }
+        updateStats();
+        rollUpInBackground(reader.groups());
+        updateStatus(String.format("Opened %s: %d groups, %d files", source.getName(),
+                reader.getGroupCount(), reader.getFileCount()));
+    }
+
+    /**
+     * Fill the folder rollup from groups that are already known, off the UI thread.
+     */
+    private void rollUpInBackground(List<DuplicateGroup> groups) {
+        WastedSpaceTree tree = new WastedSpaceTree();
+        wastedSpaceTree = tree;
+        Task<Void> rollupTask = new Task<>() {
+            @Override
+            protected Void call() {
+                tree.addAll(groups);
+                return null;
+            }
+        };
+        rollupTask.setOnSucceeded(e -> {
+            if (wastedSpaceTree == tree) refreshFolders();
+        });
+        rollupTask.setOnFailed(e -> System.err.println("Folder rollup failed: " + rollupTask.getException().getMessage()));
+        Thread rollupThread = new Thread(rollupTask, "folder-rollup");
+        rollupThread.setDaemon(true);
+        rollupThread.start();
+    }
+
+    /**
+     * Point the groups table at a new list; saved results are a read-only view.
+     */
+    private void showGroups(ObservableList<DuplicateGroup> groups) {
+        duplicateGroups = groups;
+        groupsTableView.setItems(groups);
+    }
+
     // Add this method to handle clearing directories
     private void handleClearDirectories() {
         selectedDirectories.clear();
@@ -438,11 +783,22 @@ public class MainController {
             return;
         }
 
+        PathFilter pathFilter;
+        try {
+            pathFilter = buildPathFilter();
+        } catch (IllegalArgumentException e) {
+            showAlert("Invalid filter: " + e.getMessage());
+            return;
+        }
+        if (!applyThrottle()) return;
+        scanThrottle.resume();
+        pauseBtn.setText("Pause");
+
         // Clear previous results
         clearPreviousResults();
 
         // Create scanner with ALL directories
-        duplicateFinderTask = new DuplicateFinderTask(selectedDirectories);
+        duplicateFinderTask = createScanTask(scanModeBox.getValue(), pathFilter);
 
         // Bind progress
         progressBar.progressProperty().bind(duplicateFinderTask.progressProperty());
@@ -461,6 +817,7 @@ public class MainController {
 
                     updateStatus("Scan completed! Found " + results.size() + " duplicate groups.");
                     updateStats();
+                    refreshFolders();
 
                 });
 
@@ -480,6 +837,15 @@ public class MainController {
             }
         });
 
+        duplicateFinderTask.setOnCancelled(event -> {
+            pauseBtn.setText("Pause");
+            progressBar.progressProperty().unbind();
+            progressLabel.textProperty().unbind();
+            progressBar.setProgress(0);
+            progressLabel.setText("Cancelled");
+            updateStatus("Scan cancelled");
+        });
+
         duplicateFinderTask.setOnFailed(event -> {
             Platform.runLater(() -> {
                 Throwable ex = duplicateFinderTask.getException();
@@ -493,46 +859,133 @@ public class MainController {
         });
 
         // Start scanning in background thread
-        Thread scanThread = new Thread(duplicateFinderTask);
-        scanThread.setDaemon(true);
-        scanThread.start();
+        if (virtualThreadsBox.isSelected()) {
+            Thread.ofVirtual().name("duplicate-scan").start(duplicateFinderTask);
+        } else {
+            Thread scanThread = new Thread(duplicateFinderTask);
+            scanThread.setDaemon(true);
+            scanThread.start();
+        }
 
         updateStatus("Scanning started...");
     }
 
+    private Task<List<DuplicateGroup>> createScanTask(ScanMode mode, PathFilter pathFilter) {
+        switch (mode) {
+            case SIMILAR_IMAGES:
+                SimilarImageFinderTask imageTask = new SimilarImageFinderTask(selectedDirectories);
+                imageTask.setPathFilter(pathFilter);
+                imageTask.setThrottle(scanThrottle);
+                return imageTask;
+            case SHARED_CONTENT:
+                SharedContentFinderTask sharedTask = new SharedContentFinderTask(selectedDirectories);
+                sharedTask.setPathFilter(pathFilter);
+                sharedTask.setThrottle(scanThrottle);
+                return sharedTask;
+            case DUPLICATE_DIRECTORIES:
+            case EXACT_DUPLICATES:
+            default:
+                ScanOptions options = new ScanOptions();
+                options.setDetectDuplicateDirectories(mode == ScanMode.DUPLICATE_DIRECTORIES);
+                options.setScanArchives(scanArchivesBox.isSelected());
+                options.setExternalSort(lowMemoryBox.isSelected() && mode == ScanMode.EXACT_DUPLICATES);
+                options.setPathFilter(pathFilter);
+                options.setStayOnFileSystem(oneFileSystemBox.isSelected());
+                options.setAsyncIo(asyncIoBox.isSelected());
+                options.setVirtualThreads(virtualThreadsBox.isSelected());
+                options.setThrottle(scanThrottle);
+                options.setWastedSpaceTree(wastedSpaceTree);
+                if (catalogBox.isSelected()) options.setCatalogPath(getCatalogPath());
+                DuplicateFinderTask task = new DuplicateFinderTask(selectedDirectories, options);
+                task.setArchiveScanner(archiveScanner);
+                return task;
+        }
+    }
+
     private void deleteAllDuplicates() {
-        List<File> allDuplicates = duplicateGroups.stream()
-                .flatMap(group -> {
-                    List<File> files = group.getFiles();
-                    return files.size() > 1 ? files.subList(1, files.size()).stream() : java.util.stream.Stream.empty();
-                })
-                .collect(Collectors.toList());
-
-        if (allDuplicates.isEmpty()) {
+        if (duplicateGroups.isEmpty()) {
             showAlert("No duplicates found to delete.");
             return;
         }
+        KeepPolicy policy;
+        try {
+            policy = buildKeepPolicy();
+        } catch (IllegalArgumentException e) {
+            showAlert(e.getMessage());
+            return;
+        }
 
-        if (confirmDelete("Delete all " + allDuplicates.size() + " duplicate files?")) {
-            List<Path> paths = allDuplicates.stream()
-                    .map(File::toPath)
-                    .collect(Collectors.toList());
+        // Only exact copies are ever deleted in bulk; similar images and shared content are left for review
+        List<DuplicateGroup> groups = duplicateGroups.stream().filter(DuplicateGroup::isExactCopy).toList();
+        int skipped = duplicateGroups.size() - groups.size();
+        if (groups.isEmpty()) {
+            showAlert("Delete All only removes exact copies. Similar images and files that share"
+                    + " content are not deleted in bulk.");
+            return;
+        }
 
+        // Deciding reads modification times, so it runs off the UI thread
+        Task<List<KeepPolicy.Decision>> decideTask = new Task<>() {
+            @Override
+            protected List<KeepPolicy.Decision> call() {
+                return policy.decideAll(groups);
+            }
+        };
+        decideTask.setOnSucceeded(e -> confirmAndDelete(decideTask.getValue(), skipped));
+        decideTask.setOnFailed(e -> showAlert("Could not decide what to keep: " + decideTask.getException().getMessage()));
+        Thread decideThread = new Thread(decideTask, "keep-policy");
+        decideThread.setDaemon(true);
+        decideThread.start();
+        updateStatus("Choosing which copies to keep...");
+    }
+
+    /**
+     * @param skipped groups left out because they are not exact copies
+     */
+    private void confirmAndDelete(List<KeepPolicy.Decision> decisions, int skipped) {
+        List<Path> paths = new ArrayList<>();
+        long reclaimable = 0;
+        for (KeepPolicy.Decision decision : decisions) {
+            for (File file : decision.getRemove()) {
+                paths.add(file.toPath());
+            }
+            reclaimable += decision.getFreedBytes();
+        }
+
+        if (paths.isEmpty()) {
+            showAlert("No duplicates found to delete.");
+            updateStatus("Nothing to delete");
+            return;
+        }
+
+        String notDeleted = skipped == 0 ? ""
+                : "\n" + skipped + " groups that are only similar or share content are not touched.";
+        if (confirmDelete("Delete " + paths.size() + " duplicate files ("
+                + FormatUtils.formatFileSize(reclaimable) + ")?" + notDeleted)) {
             long freedSpace = FileUtils.deleteFiles(paths);
-            duplicateGroups.clear();
+            showGroups(FXCollections.observableArrayList());
+            closeOpenedResults();
             currentFiles.clear();
+            wastedSpaceTree = new WastedSpaceTree();
+            refreshFolders();
             groupsTableView.refresh();
             filesTableView.refresh();
             updateStats();
             updateStatus("Deleted all duplicates, freed " + FormatUtils.formatFileSize(freedSpace));
+        } else {
+            updateStatus("Delete cancelled");
         }
     }
 
     private void clearPreviousResults() {
-        duplicateGroups.clear();
+        showGroups(FXCollections.observableArrayList());
+        closeOpenedResults();
         currentFiles.clear();
-        if (fileIconService != null) {
-            fileIconService.clearCache();
+        wastedSpaceTree = new WastedSpaceTree();
+        refreshFolders();
+        if (thumbnailService != null) {
+            thumbnailService.cancelPending();
+            thumbnailService.clearCache();
         }
         groupsTableView.getSelectionModel().clearSelection();
         groupsTableView.refresh();
@@ -540,6 +993,16 @@ public class MainController {
         updateStats();
     }
 
+    /**
+     * Release the mapped result file once the table no longer shows its groups.
+     */
+    private void closeOpenedResults() {
+        if (openedResults != null) {
+            openedResults.close();
+            openedResults = null;
+        }
+    }
+
     private void onGroupSelected(DuplicateGroup group) {
         if (group != null) {
             currentFiles.setAll(group.getFiles());
@@ -551,31 +1014,117 @@ public class MainController {
         }
     }
 
-    private void loadThumbnailForCell(File fileData, TableCell<File, ImageView> cell) {
-        if (fileIconService != null) {
-            Task<ImageView> thumbnailTask = fileIconService.getThumbnailForFile(
-                    Paths.get(fileData.getPath()));
-
-            thumbnailTask.setOnSucceeded(event -> {
-                ImageView thumbnail = thumbnailTask.getValue();
-                if (thumbnail != null) {
-                    Platform.runLater(() -> {
-                        cell.setGraphic(thumbnail);
-                    });
+    /**
+     * Tree row for one folder. Its subfolders are looked up, sorted, only
+     * when it is first expanded.
+     */
+    private static class FolderTreeItem extends TreeItem<WastedSpaceTree.Node> {
+        private final WastedSpaceTree tree;
+        private boolean loaded;
+
+        FolderTreeItem(WastedSpaceTree tree, WastedSpaceTree.Node node) {
+            super(node);
+            this.tree = tree;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return loaded ? super.getChildren().isEmpty() : !tree.hasChildren(getValue());
+        }
+
+        @Override
+        public ObservableList<TreeItem<WastedSpaceTree.Node>> getChildren() {
+            if (!loaded) {
+                loaded = true;
+                List<TreeItem<WastedSpaceTree.Node>> items = new ArrayList<>();
+                for (WastedSpaceTree.Node child : tree.children(getValue())) {
+                    items.add(new FolderTreeItem(tree, child));
                 }
-            });
+                super.getChildren().setAll(items);
+            }
+            return super.getChildren();
+        }
+    }
 
-            thumbnailTask.setOnFailed(event -> {
-                Platform.runLater(() -> {
-                    cell.setGraphic(null);
-                });
-            });
+    /**
+     * Table cell that loads its thumbnail in the background and cancels the
+     * pending load as soon as the cell is reused for another row.
+     */
+    private class ThumbnailCell extends TableCell<File, ImageView> {
+        private Task<ImageView> pendingTask;
+        private File loadedFile;
+
+        @Override
+        protected void updateItem(ImageView item, boolean empty) {
+            super.updateItem(item, empty);
+            File fileData = empty || getTableRow() == null ? null : getTableRow().getItem();
+
+            // Same file as before, keep the current graphic
+            if (fileData != null && fileData.equals(loadedFile)) return;
+
+            cancelPending();
+            loadedFile = fileData;
+            if (fileData == null || thumbnailService == null) {
+                setGraphic(null);
+                return;
+            }
+            loadThumbnailForCell(fileData, this);
         }
+
+        private void cancelPending() {
+            if (pendingTask != null) {
+                // Interrupts a decode already running, not just a queued one
+                pendingTask.cancel(true);
+                pendingTask = null;
+            }
+        }
+    }
+
+    private void loadThumbnailForCell(File fileData, ThumbnailCell cell) {
+        Path path = Paths.get(fileData.getPath());
+
+        // Cache hits are shown immediately without going through the worker pool
+        Image cached = thumbnailService.getCachedThumbnail(path);
+        if (cached != null) {
+            cell.setGraphic(thumbnailService.createImageView(cached));
+            return;
+        }
+
+        cell.setGraphic(null);
+        Task<ImageView> thumbnailTask = thumbnailService.createThumbnailView(path);
+        cell.pendingTask = thumbnailTask;
+
+        thumbnailTask.setOnSucceeded(event -> {
+            // Ignore results for rows the cell no longer shows
+            if (cell.pendingTask != thumbnailTask) return;
+            cell.pendingTask = null;
+            ImageView thumbnail = thumbnailTask.getValue();
+            if (thumbnail != null) {
+                cell.setGraphic(thumbnail);
+            }
+        });
+
+        thumbnailTask.setOnFailed(event -> {
+            if (cell.pendingTask != thumbnailTask) return;
+            cell.pendingTask = null;
+            cell.setGraphic(null);
+        });
+    }
+
+    private Path getCatalogPath() {
+        return Paths.get(System.getProperty("user.home"), ".duplicatefinder", "catalog");
+    }
+
+    private Path getThumbnailDiskCacheDir() {
+        // Persistent thumbnails are opt-in: -Dduplicatefinder.thumbnailCacheDir=<dir>
+        String dir = System.getProperty("duplicatefinder.thumbnailCacheDir");
+        return dir != null && !dir.isBlank() ? Paths.get(dir) : null;
     }
 
     private void updateStats() {
-        long wasteSpace = duplicateGroups.stream()
-                .mapToLong(group -> group.getSize() * (group.getFileCount() - 1))
+        // A saved result carries its total, so its groups need not all be decoded
+        long wasteSpace = openedResults != null ? openedResults.getWastedBytes() : duplicateGroups.stream()
+                .mapToLong(DuplicateGroup::getWastedSize)
                 .sum();
         spaceSavedLabel.setText("Potential space: " + FormatUtils.formatFileSize(wasteSpace));
     }
@@ -602,6 +1151,9 @@ public class MainController {
     }
 
     public void cleanup() {
+        if (thumbnailService != null) {
+            thumbnailService.shutdown();
+        }
         if (fileIconService != null) {
             fileIconService.shutdown();
         }
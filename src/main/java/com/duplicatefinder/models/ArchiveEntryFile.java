@@ -0,0 +1,45 @@
+package com.duplicatefinder.models;
+
+import java.io.File;
+
+/**
+ * Virtual file standing for an entry inside an archive, shown as
+ * {@code archive.zip!/path/in/archive}. Size and time come from the archive
+ * directory, since the entry does not exist on disk by itself.
+ */
+public class ArchiveEntryFile extends File {
+    private static final long serialVersionUID = 1L;
+
+    public static final String SEPARATOR = "!/";
+
+    private final File archive;
+    private final String entryName;
+    private final long entrySize;
+    private final long entryModified;
+
+    public ArchiveEntryFile(File archive, String entryName, long entrySize, long entryModified) {
+        super(archive.getPath() + SEPARATOR + entryName);
+        this.archive = archive;
+        this.entryName = entryName;
+        this.entrySize = entrySize;
+        this.entryModified = entryModified;
+    }
+
+    public File getArchive() { return archive; }
+    public String getEntryName() { return entryName; }
+
+    @Override
+    public long length() { return entrySize; }
+
+    @Override
+    public long lastModified() { return entryModified; }
+
+    @Override
+    public boolean exists() { return archive.exists(); }
+
+    @Override
+    public boolean isFile() { return true; }
+
+    @Override
+    public boolean isDirectory() { return false; }
+}
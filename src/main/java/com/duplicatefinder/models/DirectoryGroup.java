@@ -0,0 +1,26 @@
+package com.duplicatefinder.models;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Directories whose whole subtree (names and contents) is identical.
+ * The size is the size of one copy of the tree.
+ */
+public class DirectoryGroup extends DuplicateGroup {
+    private final int filesPerDirectory;
+
+    public DirectoryGroup(long treeSize, String merkleHash, List<File> directories, int filesPerDirectory) {
+        super(treeSize, merkleHash, directories);
+        this.filesPerDirectory = filesPerDirectory;
+    }
+
+    /** Number of files inside each copy of the tree */
+    public int getFilesPerDirectory() { return filesPerDirectory; }
+
+    @Override
+    public String toString() {
+        return String.format("DirectoryGroup[%s: %d copies, %d files each]",
+                getGroupId(), getFileCount(), filesPerDirectory);
+    }
+}
@@ -32,6 +32,9 @@ public class DuplicateGroup {
     public long getTotalSize() { return size * files.size(); }
     public long getWastedSize() { return size * (files.size() - 1); }
 
+    /** Whether every member is a byte-identical copy, so all but one can be deleted safely */
+    public boolean isExactCopy() { return true; }
+
     @Override
     public String toString() {
         return String.format("DuplicateGroup[%s: %d files, %s each]",
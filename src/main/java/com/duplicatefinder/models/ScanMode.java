@@ -0,0 +1,21 @@
+package com.duplicatefinder.models;
+
+public enum ScanMode {
+    EXACT_DUPLICATES("Exact duplicates"),
+    DUPLICATE_DIRECTORIES("Duplicate directories"),
+    SIMILAR_IMAGES("Similar images"),
+    SHARED_CONTENT("Shared content (large files)");
+
+    private final String displayName;
+
+    ScanMode(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() { return displayName; }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
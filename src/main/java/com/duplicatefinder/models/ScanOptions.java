@@ -0,0 +1,103 @@
+package com.duplicatefinder.models;
+
+import com.duplicatefinder.services.ScanThrottle;
+import com.duplicatefinder.services.WastedSpaceTree;
+import com.duplicatefinder.utils.PathFilter;
+
+import java.nio.file.Path;
+
+/**
+ * Settings for a duplicate scan. Defaults match the plain exact-duplicate scan.
+ */
+public class ScanOptions {
+    private boolean detectDuplicateDirectories;
+    private boolean scanArchives;
+    private boolean externalSort;
+    private long heapBudgetBytes = 256L * 1024 * 1024;
+    private PathFilter pathFilter = PathFilter.defaults();
+    private boolean stayOnFileSystem;
+    private int threadsPerDevice;
+    private boolean asyncIo;
+    private int ioQueueDepth;
+    private boolean virtualThreads;
+    private ScanThrottle throttle = new ScanThrottle();
+    private Path catalogPath;
+    private WastedSpaceTree wastedSpaceTree;
+
+    public boolean isDetectDuplicateDirectories() { return detectDuplicateDirectories; }
+    public void setDetectDuplicateDirectories(boolean detectDuplicateDirectories) {
+        this.detectDuplicateDirectories = detectDuplicateDirectories;
+    }
+
+    /** Look inside zip/jar/tar/tar.gz files and compare their entries too */
+    public boolean isScanArchives() { return scanArchives; }
+    public void setScanArchives(boolean scanArchives) {
+        this.scanArchives = scanArchives;
+    }
+
+    /** Keep per-file state in sorted run files on disk instead of in memory */
+    public boolean isExternalSort() { return externalSort; }
+    public void setExternalSort(boolean externalSort) {
+        this.externalSort = externalSort;
+    }
+
+    /** Memory for the scan's file lists and sort buffers; past it, file lists spill to disk */
+    public long getHeapBudgetBytes() { return heapBudgetBytes; }
+    public void setHeapBudgetBytes(long heapBudgetBytes) {
+        this.heapBudgetBytes = heapBudgetBytes;
+    }
+
+    /** Which directories and files the walk visits */
+    public PathFilter getPathFilter() { return pathFilter; }
+    public void setPathFilter(PathFilter pathFilter) {
+        this.pathFilter = pathFilter;
+    }
+
+    /** Do not descend into other mounted filesystems below the selected directories */
+    public boolean isStayOnFileSystem() { return stayOnFileSystem; }
+    public void setStayOnFileSystem(boolean stayOnFileSystem) {
+        this.stayOnFileSystem = stayOnFileSystem;
+    }
+
+    /** Hashing threads per storage device; 0 measures each device, or picks a count from its type */
+    public int getThreadsPerDevice() { return threadsPerDevice; }
+    public void setThreadsPerDevice(int threadsPerDevice) {
+        this.threadsPerDevice = threadsPerDevice;
+    }
+
+    /** Hash with many asynchronous reads in flight; pays off on high-latency storage */
+    public boolean isAsyncIo() { return asyncIo; }
+    public void setAsyncIo(boolean asyncIo) {
+        this.asyncIo = asyncIo;
+    }
+
+    /** Reads in flight per device when async I/O is on; 0 uses each device's measured depth */
+    public int getIoQueueDepth() { return ioQueueDepth; }
+    public void setIoQueueDepth(int ioQueueDepth) {
+        this.ioQueueDepth = ioQueueDepth;
+    }
+
+    /** Walk and hash on virtual threads, with per-device permits limiting I/O */
+    public boolean isVirtualThreads() { return virtualThreads; }
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /** Rate and thread limits; the same instance can be adjusted while the scan runs */
+    public ScanThrottle getThrottle() { return throttle; }
+    public void setThrottle(ScanThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /** Database that records this scan and caches hashes across runs; null for none */
+    public Path getCatalogPath() { return catalogPath; }
+    public void setCatalogPath(Path catalogPath) {
+        this.catalogPath = catalogPath;
+    }
+
+    /** Per-directory rollup filled in as groups are found; null for none */
+    public WastedSpaceTree getWastedSpaceTree() { return wastedSpaceTree; }
+    public void setWastedSpaceTree(WastedSpaceTree wastedSpaceTree) {
+        this.wastedSpaceTree = wastedSpaceTree;
+    }
+}
@@ -0,0 +1,46 @@
+package com.duplicatefinder.models;
+
+import com.duplicatefinder.utils.FormatUtils;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Two files (or two directories) that are not identical but share content,
+ * found by content-defined chunking. The size is the number of shared bytes.
+ */
+public class SharedContentGroup extends DuplicateGroup {
+    private final boolean directoryPair;
+    private final long smallerSize;
+
+    public SharedContentGroup(List<File> members, long sharedBytes, long smallerSize, boolean directoryPair) {
+        super(sharedBytes, describe(sharedBytes, smallerSize, directoryPair), members);
+        this.directoryPair = directoryPair;
+        this.smallerSize = smallerSize;
+    }
+
+    private static String describe(long sharedBytes, long smallerSize, boolean directoryPair) {
+        String prefix = directoryPair ? "dirs share " : "share ";
+        if (smallerSize <= 0) {
+            return prefix + FormatUtils.formatFileSize(sharedBytes);
+        }
+        return String.format("%s%s (%.0f%%)", prefix, FormatUtils.formatFileSize(sharedBytes),
+                100.0 * sharedBytes / smallerSize);
+    }
+
+    public boolean isDirectoryPair() { return directoryPair; }
+
+    /** Fraction of the smaller member that is also found in the other member */
+    public double getSharedRatio() {
+        return smallerSize > 0 ? (double) getSize() / smallerSize : 0;
+    }
+
+    @Override
+    public long getTotalSize() { return smallerSize; }
+
+    @Override
+    public boolean isExactCopy() { return false; }
+
+    @Override
+    public long getWastedSize() { return getSize(); }
+}
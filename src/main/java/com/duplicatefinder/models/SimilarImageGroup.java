@@ -0,0 +1,51 @@
+package com.duplicatefinder.models;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Group of images that look alike but are not byte-identical, e.g. the same
+ * photo re-encoded or resized. Files can have different sizes, so only the
+ * largest copy counts as kept when computing wasted space.
+ */
+public class SimilarImageGroup extends DuplicateGroup {
+    private final int maxDistance;
+    private final long totalSize;
+
+    public SimilarImageGroup(String perceptualHash, List<File> similarFiles, int maxDistance) {
+        this(perceptualHash, similarFiles, maxDistance, largestSize(similarFiles),
+                similarFiles.stream().mapToLong(File::length).sum());
+    }
+
+    /**
+     * With sizes already known, e.g. from saved results, so no file is touched.
+     */
+    public SimilarImageGroup(String perceptualHash, List<File> similarFiles, int maxDistance,
+                             long largestSize, long totalSize) {
+        super(largestSize, perceptualHash, similarFiles);
+        this.maxDistance = maxDistance;
+        this.totalSize = totalSize;
+    }
+
+    private static long largestSize(List<File> files) {
+        return files.stream().mapToLong(File::length).max().orElse(0);
+    }
+
+    /** Largest Hamming distance from the group's reference hash to any member */
+    public int getMaxDistance() { return maxDistance; }
+
+    @Override
+    public long getTotalSize() { return totalSize; }
+
+    @Override
+    public boolean isExactCopy() { return false; }
+
+    @Override
+    public long getWastedSize() { return totalSize - getSize(); }
+
+    @Override
+    public String toString() {
+        return String.format("SimilarImageGroup[%s: %d files, distance <= %d]",
+                getGroupId(), getFileCount(), maxDistance);
+    }
+}
@@ -0,0 +1,143 @@
+package com.duplicatefinder.services;
+
+import com.duplicatefinder.models.ArchiveEntryFile;
+import com.duplicatefinder.utils.SparseCrc32;
+import com.duplicatefinder.utils.TarStreamReader;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the entries of zip/jar/tar/tar.gz archives without extracting them.
+ * Each entry is streamed once and gets both its quick hash and its full hash
+ * in that single pass, in the same format DuplicateFinderTask uses for files.
+ * Results are cached per archive path, size and mtime, so an unchanged
+ * archive is only decompressed once per session.
+ */
+public class ArchiveScanner {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Map<String, List<HashedEntry>> cache = new ConcurrentHashMap<>();
+
+    public static class HashedEntry {
+        private final ArchiveEntryFile file;
+        private final long quickHash;
+        private final long fullHash;
+
+        HashedEntry(ArchiveEntryFile file, long quickHash, long fullHash) {
+            this.file = file;
+            this.quickHash = quickHash;
+            this.fullHash = fullHash;
+        }
+
+        public ArchiveEntryFile getFile() { return file; }
+        /** CRC32 of the first {@link DuplicateFinderTask#QUICK_HASH_BYTES} bytes */
+        public long getQuickHash() { return quickHash; }
+        /** CRC32 of the whole entry */
+        public long getFullHash() { return fullHash; }
+    }
+
+    public static boolean isArchive(String fileName) {
+        String name = fileName.toLowerCase();
+        return name.endsWith(".zip") || name.endsWith(".jar")
+                || name.endsWith(".tar") || name.endsWith(".tar.gz") || name.endsWith(".tgz");
+    }
+
+    /**
+     * @param cancelled checked between entries and while reading them
+     * @return hashed entries larger than one byte, or an empty list if the archive is unreadable
+     */
+    public List<HashedEntry> scan(Path archive, BasicFileAttributes attrs, BooleanSupplier cancelled) {
+        String key = archive + "|" + attrs.size() + "|" + attrs.lastModifiedTime().toMillis();
+        List<HashedEntry> cached = cache.get(key);
+        if (cached != null) return cached;
+
+        List<HashedEntry> entries = new ArrayList<>();
+        try {
+            String name = archive.getFileName().toString().toLowerCase();
+            if (name.endsWith(".zip") || name.endsWith(".jar")) {
+                scanZip(archive, entries, cancelled);
+            } else {
+                scanTar(archive, name.endsWith(".tar") ? null : "gz", entries, cancelled);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Corrupt or unsupported archive, treat it as an opaque file
+            return List.of();
+        }
+
+        // A cancelled scan may have stopped halfway, so do not cache it
+        if (!cancelled.getAsBoolean()) {
+            cache.put(key, entries);
+        }
+        return entries;
+    }
+
+    public void clearCache() {
+        cache.clear();
+    }
+
+    private void scanZip(Path archive, List<HashedEntry> entries, BooleanSupplier cancelled) throws IOException {
+        File archiveFile = archive.toFile();
+        try (FileSystem zip = FileSystems.newFileSystem(archive, (ClassLoader) null);
+             Stream<Path> walk = Files.walk(zip.getPath("/"))) {
+            for (Path entry : (Iterable<Path>) walk::iterator) {
+                if (cancelled.getAsBoolean()) return;
+                BasicFileAttributes entryAttrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                if (!entryAttrs.isRegularFile() || entryAttrs.size() <= 1) continue;
+
+                String entryName = entry.toString().substring(1);
+                try (InputStream in = Files.newInputStream(entry)) {
+                    addEntry(entries, new ArchiveEntryFile(archiveFile, entryName, entryAttrs.size(),
+                            entryAttrs.lastModifiedTime().toMillis()), in, cancelled);
+                }
+            }
+        }
+    }
+
+    private void scanTar(Path archive, String compression, List<HashedEntry> entries, BooleanSupplier cancelled)
+            throws IOException {
+        File archiveFile = archive.toFile();
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(archive), BUFFER_SIZE);
+             InputStream in = "gz".equals(compression) ? new GZIPInputStream(raw, BUFFER_SIZE) : raw) {
+            TarStreamReader tar = new TarStreamReader(in);
+            TarStreamReader.Entry entry;
+            while ((entry = tar.nextEntry()) != null) {
+                if (cancelled.getAsBoolean()) return;
+                if (entry.size <= 1) continue;
+                addEntry(entries, new ArchiveEntryFile(archiveFile, entry.name, entry.size, entry.modifiedMillis),
+                        tar.entryStream(), cancelled);
+            }
+        }
+    }
+
+    private void addEntry(List<HashedEntry> entries, ArchiveEntryFile file, InputStream in, BooleanSupplier cancelled)
+            throws IOException {
+        CRC32 quick = new CRC32();
+        SparseCrc32 full = new SparseCrc32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long position = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (cancelled.getAsBoolean()) return;
+            if (position < DuplicateFinderTask.QUICK_HASH_BYTES) {
+                int quickBytes = (int) Math.min(read, DuplicateFinderTask.QUICK_HASH_BYTES - position);
+                quick.update(buffer, 0, quickBytes);
+            }
+            full.update(buffer, 0, read);
+            position += read;
+        }
+        entries.add(new HashedEntry(file, quick.getValue(), full.getValue()));
+    }
+}
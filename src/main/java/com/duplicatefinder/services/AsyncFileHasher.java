@@ -0,0 +1,322 @@
+package com.duplicatefinder.services;
+
+import com.duplicatefinder.utils.SparseCrc32;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Hashes files with {@link AsynchronousFileChannel}, keeping up to
+ * queueDepth reads in flight at once across different files.
+ *
+ * Each in-flight file holds one slot from a fixed pool, a direct buffer and
+ * the CRC state it is hashed with, and further requests wait in a queue
+ * until a slot is returned. Reads complete on
+ * virtual threads, so a deep queue on slow network storage costs
+ * waiting requests rather than OS threads.
+ *
+ * Aborting or closing the hasher stops it at once: the channels of
+ * in-flight reads are closed rather than read to the end. Closing also
+ * fails the requests still queued.
+ */
+public class AsyncFileHasher implements AutoCloseable {
+
+    private final ExecutorService ioExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ArrayBlockingQueue<Slot> slots;
+    private final Queue<Request> waiting = new ConcurrentLinkedQueue<>();
+    private final Set<Request> active = ConcurrentHashMap.newKeySet();
+    private final BooleanSupplier cancelled;
+    private final LongConsumer bytesRead;
+    private final ReadHandler handler = new ReadHandler();
+    private volatile boolean closed;
+
+    /**
+     * @param bytesRead told the size of every completed read, for progress
+     */
+    public AsyncFileHasher(int queueDepth, int bufferSize, BooleanSupplier cancelled, LongConsumer bytesRead) {
+        this.slots = new ArrayBlockingQueue<>(queueDepth);
+        for (int i = 0; i < queueDepth; i++) {
+            slots.add(new Slot(bufferSize));
+        }
+        this.cancelled = cancelled;
+        this.bytesRead = bytesRead;
+    }
+
+    /**
+     * Store the CRC32 of the first maxBytes of the file (all of it for
+     * Long.MAX_VALUE) in target[index]. The future completes exceptionally,
+     * leaving target untouched, if the file cannot be read.
+     */
+    public CompletableFuture<Void> crc32(Path file, long maxBytes, long[] target, int index) {
+        return submit(new Request(file, maxBytes, target, index, 0, 0));
+    }
+
+    /**
+     * Like {@link #crc32(Path, long, long[], int)} for the first bytes of the
+     * file, also storing the hash state in partials[index] so the full hash
+     * can carry on from it. The channel is kept open if handles has room.
+     */
+    public CompletableFuture<Void> crc32(Path file, int bytes, long[] target,
+                                         PartialHash[] partials, PartialHash.OpenHandles handles, int index) {
+        Request request = new Request(file, bytes, target, index, 0, 0);
+        request.partialTarget = partials;
+        request.handles = handles;
+        return submit(request);
+    }
+
+    /**
+     * Carry on a partial hash to the end of the file, on its kept channel if
+     * there is one, storing the CRC32 of the whole file in target[index].
+     */
+    public CompletableFuture<Void> crc32(Path file, PartialHash partial, PartialHash.OpenHandles handles,
+                                         long[] target, int index) {
+        Request request = new Request(file, Long.MAX_VALUE, target, index, partial.getCrc(), partial.getPosition());
+        Channel kept = handles.take(partial);
+        if (kept instanceof AsynchronousFileChannel) {
+            request.channel = (AsynchronousFileChannel) kept;
+        } else if (kept != null) {
+            closeQuietly(kept);
+        }
+        return submit(request);
+    }
+
+    /**
+     * Read the whole file once, storing the CRC32 of its first prefixBytes in
+     * prefixTarget[index] and of all of it in target[index].
+     */
+    public CompletableFuture<Void> crc32(Path file, int prefixBytes, long[] prefixTarget, long[] target, int index) {
+        Request request = new Request(file, Long.MAX_VALUE, target, index, 0, 0);
+        request.prefixBytes = prefixBytes;
+        request.prefixTarget = prefixTarget;
+        return submit(request);
+    }
+
+    private CompletableFuture<Void> submit(Request request) {
+        if (closed) {
+            closeQuietly(request.channel);
+            request.result.completeExceptionally(new CancellationException("Hasher closed"));
+            return request.result;
+        }
+        waiting.add(request);
+        startWaiting();
+        return request.result;
+    }
+
+    /**
+     * Hand free slots to waiting requests. Safe to call from any thread;
+     * re-checks the queue after returning a slot so no request is stranded.
+     */
+    private void startWaiting() {
+        while (true) {
+            Slot slot = slots.poll();
+            if (slot == null) return;
+            Request request = waiting.poll();
+            if (request != null) {
+                start(request, slot);
+                continue;
+            }
+            slots.offer(slot);
+            if (waiting.isEmpty()) return;
+        }
+    }
+
+    private void start(Request request, Slot slot) {
+        slot.crc.reset(request.startCrc);
+        slot.prefixCrc.reset();
+        request.slot = slot;
+        active.add(request);
+        if (closed || cancelled.getAsBoolean()) {
+            finish(request, new CancellationException("Scan cancelled"));
+            return;
+        }
+        try {
+            // A continued hash may already have its channel
+            if (request.channel == null) {
+                request.channel = AsynchronousFileChannel.open(request.file, Set.of(StandardOpenOption.READ), ioExecutor);
+            }
+        } catch (IOException | RuntimeException e) {
+            finish(request, e);
+            return;
+        }
+        // close() may have run while the channel was opening
+        if (closed) {
+            finish(request, new CancellationException("Hasher closed"));
+            return;
+        }
+        readNext(request);
+    }
+
+    private void readNext(Request request) {
+        ByteBuffer buffer = request.slot.buffer;
+        buffer.clear();
+        long remaining = request.maxBytes - request.position;
+        if (remaining < buffer.capacity()) {
+            buffer.limit((int) remaining);
+        }
+        try {
+            request.channel.read(buffer, request.position, request, handler);
+        } catch (RuntimeException e) {
+            // Closed underneath us, or the I/O threads are gone
+            finish(request, e);
+        }
+    }
+
+    private void finish(Request request, Throwable error) {
+        if (!active.remove(request)) return;
+        Slot slot = request.slot;
+        request.slot = null;
+        long crc = slot.crc.getValue();
+        if (error == null && request.partialTarget != null) {
+            // The full hash may carry on from here, on the same channel
+            request.partialTarget[request.index] = request.handles.keep(crc, request.position, request.channel);
+        } else {
+            closeQuietly(request.channel);
+        }
+        long prefixCrc = slot.prefixCrc.getValue();
+        slots.offer(slot);
+
+        if (error != null) {
+            request.result.completeExceptionally(error);
+        } else {
+            request.target[request.index] = crc;
+            if (request.prefixTarget != null) request.prefixTarget[request.index] = prefixCrc;
+            request.result.complete(null);
+        }
+        startWaiting();
+    }
+
+    /**
+     * Stop all reads without waiting for them; cheap enough to call from the UI thread.
+     */
+    public void abort() {
+        closed = true;
+        // Pending reads on a closed channel fail straight away and return their slots
+        for (Request inFlight : active) {
+            try {
+                if (inFlight.channel != null) inFlight.channel.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+        ioExecutor.shutdownNow();
+    }
+
+    @Override
+    public void close() {
+        abort();
+
+        // One pre-wrapped exception, so failing thousands of queued requests
+        // does not build a stack trace for every dependent stage
+        CompletionException cancelled = new CompletionException(new CancellationException("Hasher closed"));
+        for (Request inFlight : active) {
+            inFlight.result.completeExceptionally(cancelled);
+        }
+        Request request;
+        while ((request = waiting.poll()) != null) {
+            closeQuietly(request.channel);
+            request.result.completeExceptionally(cancelled);
+        }
+    }
+
+    private static void closeQuietly(Channel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already read everything we needed
+        }
+    }
+
+    private class ReadHandler implements CompletionHandler<Integer, Request> {
+        @Override
+        public void completed(Integer read, Request request) {
+            if (read < 0) {
+                finish(request, null);
+                return;
+            }
+            Slot slot = request.slot;
+            ByteBuffer buffer = slot.buffer;
+            buffer.flip();
+            if (request.prefixTarget != null && request.position < request.prefixBytes) {
+                ByteBuffer prefix = buffer.duplicate();
+                prefix.limit((int) Math.min(prefix.limit(), request.prefixBytes - request.position));
+                slot.prefixCrc.update(prefix);
+            }
+            slot.crc.update(buffer);
+            request.position += read;
+            bytesRead.accept(read);
+
+            if (request.position >= request.maxBytes) {
+                finish(request, null);
+            } else if (cancelled.getAsBoolean()) {
+                finish(request, new CancellationException("Scan cancelled"));
+            } else {
+                readNext(request);
+            }
+        }
+
+        @Override
+        public void failed(Throwable error, Request request) {
+            finish(request, error);
+        }
+    }
+
+    /**
+     * A read buffer and the CRCs of the file being read into it, reused from one request to the next.
+     */
+    private static class Slot {
+        final ByteBuffer buffer;
+        final SparseCrc32 crc = new SparseCrc32();
+        // Optional second CRC over just the start of the file
+        final CRC32 prefixCrc = new CRC32();
+
+        Slot(int bufferSize) {
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+    }
+
+    private static class Request {
+        final Path file;
+        final long maxBytes;
+        final long[] target;
+        final int index;
+        // CRC of the bytes before position, 0 for a file read from the start
+        final long startCrc;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        int prefixBytes;
+        long[] prefixTarget;
+        // Optional hash state to keep for a later full hash
+        PartialHash[] partialTarget;
+        PartialHash.OpenHandles handles;
+        AsynchronousFileChannel channel;
+        Slot slot;
+        long position;
+
+        Request(Path file, long maxBytes, long[] target, int index, long startCrc, long position) {
+            this.file = file;
+            this.maxBytes = maxBytes;
+            this.target = target;
+            this.index = index;
+            this.startCrc = startCrc;
+            this.position = position;
+        }
+    }
+}
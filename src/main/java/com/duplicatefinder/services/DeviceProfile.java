@@ -0,0 +1,184 @@
+package com.duplicatefinder.services;
+
+import com.duplicatefinder.utils.FormatUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+/**
+ * How to read from one storage device: the read size for full hashes and
+ * how many reads to keep in flight (hashing threads, virtual-thread permits
+ * or async queue depth).
+ *
+ * {@link #calibrate} measures both on a large file from the device: first
+ * sequential throughput for each read size, then throughput with several
+ * files read side by side at the chosen size. The smallest setting within
+ * {@link #GOOD_ENOUGH} of the best wins, so a network mount ends up with
+ * large reads and a local SSD with a deep queue, without either using more
+ * memory or threads than pays off. The bytes read are ones the scan hashes
+ * anyway. Each trial reads a part of the file no earlier trial touched, with
+ * a gap after the previous one so readahead does not flatter it, and read
+ * sizes are tried in two interleaved rounds to even out noise.
+ */
+public class DeviceProfile {
+
+    public static final int DEFAULT_READ_SIZE = 64 * 1024;
+    /** Files smaller than this give too few reads to measure anything */
+    public static final long MIN_SAMPLE_BYTES = 64L * 1024 * 1024;
+
+    private static final int[] READ_SIZES = {16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024};
+    private static final int[] QUEUE_DEPTHS = {1, 2, 4, 8, 16, 32};
+    private static final int ROUNDS = 2;
+    private static final double GOOD_ENOUGH = 0.9;
+    private static final long TRIAL_NANOS = 100_000_000L;
+    // The sample is cut into this many regions, half of them read and half left as gaps
+    private static final int REGIONS = 64;
+    private static final long MAX_REGION_BYTES = 16L * 1024 * 1024;
+
+    private final int readSize;
+    private final int queueDepth;
+    private final boolean measured;
+
+    public DeviceProfile(int readSize, int queueDepth, boolean measured) {
+        this.readSize = readSize;
+        this.queueDepth = queueDepth;
+        this.measured = measured;
+    }
+
+    /**
+     * A profile from the device type alone, for when nothing was measured.
+     */
+    public static DeviceProfile guess(int threads) {
+        return new DeviceProfile(DEFAULT_READ_SIZE, threads, false);
+    }
+
+    public int getReadSize() { return readSize; }
+    public int getQueueDepth() { return queueDepth; }
+    public boolean isMeasured() { return measured; }
+
+    /**
+     * @return e.g. "256 KB reads, 8 in flight"
+     */
+    @Override
+    public String toString() {
+        return FormatUtils.formatFileSize(readSize) + " reads, " + queueDepth + " in flight"
+                + (measured ? "" : ", default");
+    }
+
+    /**
+     * Measure a device by reading parts of one of its files.
+     *
+     * @param sample a file of at least {@link #MIN_SAMPLE_BYTES}
+     * @return null if cancelled or the sample is too small
+     */
+    public static DeviceProfile calibrate(Path sample, long size, BooleanSupplier cancelled)
+            throws IOException {
+        long region = Math.min(MAX_REGION_BYTES, size / REGIONS);
+        if (region < READ_SIZES[READ_SIZES.length - 1]) return null;
+        long[] cursor = {0};
+
+        // Read size: one file read sequentially, as a single hashing thread would
+        long[] sizeBytes = new long[READ_SIZES.length];
+        long[] sizeNanos = new long[READ_SIZES.length];
+        try (FileChannel channel = FileChannel.open(sample, StandardOpenOption.READ)) {
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int i = 0; i < READ_SIZES.length; i++) {
+                    if (cancelled.getAsBoolean()) return null;
+                    long start = cursor[0];
+                    cursor[0] += 2 * region;
+                    long began = System.nanoTime();
+                    sizeBytes[i] += readRange(channel, start, start + region, READ_SIZES[i], began);
+                    sizeNanos[i] += System.nanoTime() - began;
+                }
+            }
+        }
+        List<Double> sizeRates = new ArrayList<>();
+        for (int i = 0; i < READ_SIZES.length; i++) {
+            sizeRates.add((double) sizeBytes[i] / Math.max(1, sizeNanos[i]));
+        }
+        int readSize = READ_SIZES[pick(sizeRates)];
+
+        // Queue depth: that many files' worth of sequential reads side by side
+        List<Integer> depths = new ArrayList<>();
+        List<Double> depthRates = new ArrayList<>();
+        ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor();
+        try (FileChannel channel = FileChannel.open(sample, StandardOpenOption.READ)) {
+            for (int depth : QUEUE_DEPTHS) {
+                if (cancelled.getAsBoolean()) break;
+                long perReader = Math.max(region / depth, 4L * readSize);
+                if (size - cursor[0] < 2 * depth * perReader) break;
+                depths.add(depth);
+                depthRates.add(readSideBySide(channel, readers, cursor, depth, perReader, readSize));
+                // Past the knee, deeper queues only add contention
+                int last = depthRates.size() - 1;
+                if (last > 0 && depthRates.get(last) < depthRates.get(last - 1)) break;
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+        int queueDepth = depths.isEmpty() ? 1 : depths.get(pick(depthRates));
+        return new DeviceProfile(readSize, queueDepth, true);
+    }
+
+    /**
+     * @return the first (smallest) setting whose rate is within {@link #GOOD_ENOUGH} of the best
+     */
+    private static int pick(List<Double> rates) {
+        double best = 0;
+        for (double rate : rates) best = Math.max(best, rate);
+        for (int i = 0; i < rates.size(); i++) {
+            if (rates.get(i) >= best * GOOD_ENOUGH) return i;
+        }
+        return 0;
+    }
+
+    /**
+     * Read [start, end), stopping early {@link #TRIAL_NANOS} after began.
+     *
+     * @return the bytes read
+     */
+    private static long readRange(FileChannel channel, long start, long end, int readSize, long began)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(readSize);
+        long position = start;
+        while (position < end && System.nanoTime() - began < TRIAL_NANOS) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+            position += read;
+        }
+        return position - start;
+    }
+
+    private static double readSideBySide(FileChannel channel, ExecutorService readers, long[] cursor,
+                                         int depth, long perReader, int readSize) throws IOException {
+        List<Future<Long>> reads = new ArrayList<>(depth);
+        long began = System.nanoTime();
+        for (int i = 0; i < depth; i++) {
+            // Each reader's part is followed by a gap, like separate files
+            long start = cursor[0] + 2 * i * perReader;
+            reads.add(readers.submit(() -> readRange(channel, start, start + perReader, readSize, began)));
+        }
+        cursor[0] += 2 * depth * perReader;
+        long total = 0;
+        try {
+            for (Future<Long> read : reads) total += read.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Calibration interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Calibration read failed", e.getCause());
+        }
+        return (double) total / Math.max(1, System.nanoTime() - began);
+    }
+}
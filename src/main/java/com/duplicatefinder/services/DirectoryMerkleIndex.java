@@ -0,0 +1,258 @@
+package com.duplicatefinder.services;
+
+import com.duplicatefinder.models.DirectoryGroup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Builds a Merkle hash per directory, bottom-up, while the walker visits it.
+ *
+ * During the walk each directory gets a structure hash made from its
+ * children's names and sizes (and its subdirectories' structure hashes).
+ * Only directories whose structure hash collides with another directory can
+ * be copies, and for those a content hash is built from the file hashes that
+ * the size/hash phases already computed. Any file inside a copied directory
+ * has a same-size twin, so it was hashed anyway and no extra reads are needed.
+ *
+ * The enter/add/exit methods must be called by a single walker thread.
+ */
+public class DirectoryMerkleIndex {
+
+    private final Deque<DirectoryNode> stack = new ArrayDeque<>();
+    private final Map<String, List<DirectoryNode>> byStructure = new HashMap<>();
+    private final Set<File> duplicateDirectories = new HashSet<>();
+    private int directoriesEntered;
+
+    public void enterDirectory(Path dir) {
+        stack.push(new DirectoryNode(dir.toFile(), directoriesEntered++));
+    }
+
+    public void addFile(Path file, long size) {
+        DirectoryNode current = stack.peek();
+        if (current != null) {
+            current.files.add(new FileEntry(file.toFile(), size));
+        }
+    }
+
+    /**
+     * An unreadable entry makes the enclosing directory impossible to compare.
+     */
+    public void markIncomplete() {
+        DirectoryNode current = stack.peek();
+        if (current != null) {
+            current.incomplete = true;
+        }
+    }
+
+    public void exitDirectory() {
+        DirectoryNode node = stack.pop();
+        node.files.sort(Comparator.comparing(f -> f.file.getName()));
+        node.subdirectories.sort(Comparator.comparing(d -> d.directory.getName()));
+
+        MessageDigest digest = newDigest();
+        for (FileEntry entry : node.files) {
+            update(digest, "F", entry.file.getName(), Long.toString(entry.size));
+            node.totalSize += entry.size;
+            node.fileCount++;
+        }
+        for (DirectoryNode child : node.subdirectories) {
+            update(digest, "D", child.directory.getName(), child.structureHash);
+            node.totalSize += child.totalSize;
+            node.fileCount += child.fileCount;
+            node.incomplete |= child.incomplete;
+        }
+        node.structureHash = HexFormat.of().formatHex(digest.digest());
+
+        DirectoryNode parent = stack.peek();
+        if (parent != null) {
+            parent.subdirectories.add(node);
+        }
+
+        // Empty trees are trivially equal and not worth reporting
+        if (!node.incomplete && node.fileCount > 0) {
+            byStructure.computeIfAbsent(node.structureHash, k -> new ArrayList<>()).add(node);
+        }
+    }
+
+    /**
+     * Find directories whose whole subtree is identical, keeping only the
+     * topmost copies: a copy inside a reported copy is not reported again.
+     * A group whose copies are all covered is dropped; one left with a single
+     * outermost copy keeps one covered copy, first in walk order, to show what
+     * it duplicates. Copies are listed in walk order.
+     *
+     * @param fileHashes full content hash of every file found in a duplicate group
+     */
+    public List<DirectoryGroup> findDuplicateDirectories(Map<File, String> fileHashes) {
+        Map<DirectoryNode, String> contentHashes = new HashMap<>();
+        Map<String, List<DirectoryNode>> byContent = new HashMap<>();
+
+        for (List<DirectoryNode> candidates : byStructure.values()) {
+            if (candidates.size() < 2) continue;
+            for (DirectoryNode node : candidates) {
+                String contentHash = contentHash(node, fileHashes, contentHashes);
+                if (contentHash != null) {
+                    byContent.computeIfAbsent(contentHash, k -> new ArrayList<>()).add(node);
+                }
+            }
+        }
+
+        Map<File, List<DirectoryNode>> copiesOf = new HashMap<>();
+        for (List<DirectoryNode> copies : byContent.values()) {
+            if (copies.size() < 2) continue;
+            // Walk order, so the first copy found is listed (and kept by default) first
+            copies.sort(Comparator.comparingInt(node -> node.order));
+            copies.forEach(node -> copiesOf.put(node.directory, copies));
+        }
+
+        Map<File, Boolean> reported = new HashMap<>();
+        List<DirectoryGroup> groups = new ArrayList<>();
+        for (Map.Entry<String, List<DirectoryNode>> entry : byContent.entrySet()) {
+            List<DirectoryNode> copies = entry.getValue();
+            if (copies.size() < 2) continue;
+
+            // Copies inside a reported copy are covered by it and left out
+            List<File> directories = new ArrayList<>();
+            File representative = null;
+            for (DirectoryNode node : copies) {
+                if (!isInsideReported(node.directory, copiesOf, reported)) {
+                    directories.add(node.directory);
+                } else if (representative == null) {
+                    representative = node.directory;
+                }
+            }
+            if (directories.isEmpty()) continue;
+            duplicateDirectories.addAll(directories);
+            // A lone outermost copy is still a copy: it is shown next to one covered copy
+            if (directories.size() == 1) directories.add(representative);
+
+            DirectoryNode first = copies.get(0);
+            groups.add(new DirectoryGroup(first.totalSize, entry.getKey(), directories, first.fileCount));
+        }
+        return groups;
+    }
+
+    /**
+     * A copy is reported if it is not inside a reported copy, so the
+     * outermost copies are reported and nothing below them is reported again.
+     */
+    private boolean isReported(File directory, Map<File, List<DirectoryNode>> copiesOf, Map<File, Boolean> reported) {
+        Boolean known = reported.get(directory);
+        if (known != null) return known;
+        boolean result = !isInsideReported(directory, copiesOf, reported);
+        reported.put(directory, result);
+        return result;
+    }
+
+    private boolean isInsideReported(File directory, Map<File, List<DirectoryNode>> copiesOf,
+                                     Map<File, Boolean> reported) {
+        for (File parent = directory.getParentFile(); parent != null; parent = parent.getParentFile()) {
+            if (copiesOf.containsKey(parent) && isReported(parent, copiesOf, reported)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the file lies inside a directory reported by {@link #findDuplicateDirectories}
+     */
+    public boolean isInsideDuplicateDirectory(File file) {
+        for (File parent = file.getParentFile(); parent != null; parent = parent.getParentFile()) {
+            if (duplicateDirectories.contains(parent)) return true;
+        }
+        return false;
+    }
+
+    private String contentHash(DirectoryNode node, Map<File, String> fileHashes, Map<DirectoryNode, String> memo) {
+        if (memo.containsKey(node)) return memo.get(node);
+
+        MessageDigest digest = newDigest();
+        String result = null;
+        boolean complete = true;
+        for (FileEntry entry : node.files) {
+            String hash = entry.size <= 1 ? tinyFileHash(entry) : fileHashes.get(entry.file);
+            // A file with no duplicate anywhere means no other directory can match
+            if (hash == null) {
+                complete = false;
+                break;
+            }
+            update(digest, "F", entry.file.getName(), Long.toString(entry.size), hash);
+        }
+        if (complete) {
+            for (DirectoryNode child : node.subdirectories) {
+                String childHash = contentHash(child, fileHashes, memo);
+                if (childHash == null) {
+                    complete = false;
+                    break;
+                }
+                update(digest, "D", child.directory.getName(), childHash);
+            }
+        }
+        if (complete) {
+            result = HexFormat.of().formatHex(digest.digest());
+        }
+        memo.put(node, result);
+        return result;
+    }
+
+    // 0 and 1 byte files never reach the hash phases, so read them here
+    private String tinyFileHash(FileEntry entry) {
+        if (entry.size == 0) return "empty";
+        try (InputStream in = Files.newInputStream(entry.file.toPath())) {
+            return "byte:" + in.read();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void update(MessageDigest digest, String... parts) {
+        for (String part : parts) {
+            byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+            // Length prefix keeps ("ab","c") and ("a","bc") apart
+            digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+            digest.update(bytes);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class FileEntry {
+        final File file;
+        final long size;
+
+        FileEntry(File file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    private static class DirectoryNode {
+        final File directory;
+        final List<FileEntry> files = new ArrayList<>();
+        final List<DirectoryNode> subdirectories = new ArrayList<>();
+        final int order;
+        String structureHash;
+        long totalSize;
+        int fileCount;
+        boolean incomplete;
+
+        DirectoryNode(File directory, int order) {
+            this.directory = directory;
+            this.order = order;
+        }
+    }
+}
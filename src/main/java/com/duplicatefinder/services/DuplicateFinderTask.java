@@ -1,27 +1,113 @@
 package com.duplicatefinder.services;
 
 import com.duplicatefinder.models.DuplicateGroup;
+import com.duplicatefinder.models.ScanOptions;
+import com.duplicatefinder.utils.HashGroups;
+import com.duplicatefinder.utils.PathFilter;
+import com.duplicatefinder.utils.SparseCrc32;
 import javafx.collections.ObservableList;
 import javafx.concurrent.Task;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class DuplicateFinderTask extends Task<List<DuplicateGroup>> {
 
+    static final int QUICK_HASH_BYTES = 4096;
+    // Rough heap cost of a file being hashed: its File, hashes and partial hash state
+    private static final long BYTES_PER_FILE_IN_FLIGHT = 512;
+    private static final long CANCEL_POLL_MILLIS = 20;
+    private static final long PROGRESS_PERIOD_MILLIS = 250;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // Files up to this size are read once, whole, into the hash buffer
+    private static final long SMALL_FILE_BYTES = READ_BUFFER_SIZE;
+    // CRC32 values are 32 bits, so no real digest is ever negative
+    private static final long NO_HASH = -1;
+    // Files left open between their quick and full hash; the rest are reopened
+    private static final int MAX_OPEN_HANDLES = 256;
+
+    // Reused by every file a pool thread reads, so the hot path allocates no buffers
+    private static final ThreadLocal<HashState> HASH_STATES = ThreadLocal.withInitial(HashState::new);
+
     private final ObservableList<File> directories;
-    private final AtomicLong filesScanned = new AtomicLong();
+    private final ScanOptions options;
+    private final DirectoryMerkleIndex directoryIndex;
+    private final PathFilter pathFilter;
+    private final ScanThrottle throttle;
+    private final WastedSpaceTree wastedSpaceTree;
+    private final Map<Path, BasicFileAttributes> archives = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<File, ArchiveScanner.HashedEntry> archiveEntries = new ConcurrentHashMap<>();
+    private ArchiveScanner archiveScanner;
+    // Read by cancel() from the UI thread
+    private volatile StorageDevices devices;
+    private volatile ExecutorService virtualThreads;
+    private volatile PartialHash.OpenHandles openHandles;
+    // Virtual threads are not reused, so they borrow hash state from here instead
+    private final Queue<HashState> virtualHashStates = new ConcurrentLinkedQueue<>();
     private final AtomicLong directoriesScanned = new AtomicLong();
-    private long estimatedTotalFiles;
+    private ScanProgress progress;
+    private FileCatalog catalog;
 
     // Constructor options
     public DuplicateFinderTask(ObservableList<File> directories) {
+        this(directories, new ScanOptions());
+    }
+
+    public DuplicateFinderTask(ObservableList<File> directories, ScanOptions options) {
         this.directories = directories;
+        this.options = options;
+        this.pathFilter = options.getPathFilter();
+        this.throttle = options.getThrottle();
+        this.wastedSpaceTree = options.getWastedSpaceTree();
+        this.directoryIndex = options.isDetectDuplicateDirectories() ? new DirectoryMerkleIndex() : null;
+    }
+
+    /**
+     * Share an archive scanner between scans so unchanged archives are not decompressed again.
+     */
+    public void setArchiveScanner(ArchiveScanner archiveScanner) {
+        this.archiveScanner = archiveScanner;
+    }
+
+    /**
+     * Besides flagging the task, stop its I/O: pool threads are interrupted,
+     * which closes their blocking reads, async reads are closed, and a
+     * paused scan is released so its threads see the cancel.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            throttle.resume();
+            StorageDevices running = devices;
+            if (running != null) running.cancel();
+            ExecutorService virtual = virtualThreads;
+            if (virtual != null) virtual.shutdownNow();
+            PartialHash.OpenHandles handles = openHandles;
+            if (handles != null) handles.close();
+            virtualHashStates.clear();
+        }
+        return cancelled;
     }
 
     @Override
@@ -29,15 +115,91 @@ public class DuplicateFinderTask extends Task<List<DuplicateGroup>> {
         updateMessage("Initializing duplicate scan...");
         updateProgress(0, 100);
 
-        // Phase 1: Scan all files and group by size
-        updateMessage("Scanning files by size...");
-        updateProgress(10, 100);
-        Map<Long, List<File>> sizeMap = scanAllDirectories();
+        catalog = openCatalog();
+        try {
+            List<DuplicateGroup> duplicateGroups = options.isExternalSort() ? runExternalScan() : runExactScan();
+            if (catalog != null && !isCancelled()) catalog.recordGroups(duplicateGroups);
+            return duplicateGroups;
+        } finally {
+            if (catalog != null) catalog.close();
+        }
+    }
+
+    /**
+     * @return the catalog for this scan, or null if none is configured or it cannot be opened
+     */
+    private FileCatalog openCatalog() {
+        if (options.getCatalogPath() == null) return null;
+        try {
+            FileCatalog opened = new FileCatalog(options.getCatalogPath());
+            opened.beginScan(directories);
+            return opened;
+        } catch (SQLException e) {
+            System.err.println("Scanning without the file catalog: " + e.getMessage());
+            return null;
+        }
+    }
 
-        // Phase 2: Find actual duplicates among same-size files
-        updateMessage("Checking for actual duplicates...");
-        updateProgress(50, 100);
-        List<DuplicateGroup> duplicateGroups = findDuplicateGroups(sizeMap);
+    private List<DuplicateGroup> runExactScan() throws IOException, InterruptedException {
+        progress = new ScanProgress((message, fraction) -> {
+            updateMessage(message);
+            updateProgress(fraction < 0 ? -1 : fraction * 100, 100);
+        }, PROGRESS_PERIOD_MILLIS);
+        progress.setPaused(throttle::isPaused);
+        devices = new StorageDevices(options.getThreadsPerDevice());
+        devices.setAsyncIo(options.getIoQueueDepth(), this::isCancelled, read -> {
+            progress.hashed(read);
+            throttle.acquireBytes(read);
+        });
+        if (options.isVirtualThreads()) {
+            virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+        }
+        openHandles = new PartialHash.OpenHandles(MAX_OPEN_HANDLES);
+        try {
+            return findDuplicates();
+        } finally {
+            if (virtualThreads != null) virtualThreads.shutdownNow();
+            devices.close();
+            openHandles.close();
+            progress.close();
+        }
+    }
+
+    private List<DuplicateGroup> findDuplicates() throws IOException, InterruptedException {
+        List<DuplicateGroup> duplicateGroups;
+        try (SizeBuckets buckets = new SizeBuckets(options.getHeapBudgetBytes(),
+                Paths.get(System.getProperty("java.io.tmpdir")), DeviceProfile.MIN_SAMPLE_BYTES)) {
+            // Phase 1: Scan all files and group by size
+            updateMessage("Scanning files by size...");
+            updateProgress(-1, 100);
+            progress.startWalking();
+            scanAllDirectories(buckets);
+            progress.pause();
+            // Hash lookups below must see every file the walk recorded
+            if (catalog != null) catalog.flush();
+
+            // Phase 1b: Add archive entries to the same size buckets
+            if (options.isScanArchives() && !archives.isEmpty() && !isCancelled()) {
+                scanArchiveEntries(buckets);
+            }
+
+            // Phase 2: Find actual duplicates among same-size files
+            calibrateDevices(buckets);
+            updateMessage(buckets.isSpilled()
+                    ? String.format("Checking for actual duplicates (%d files spilled to disk)...", buckets.spilledFiles())
+                    : "Checking for actual duplicates...");
+            updateProgress(0, 100);
+            progress.startHashing();
+            duplicateGroups = findDuplicateGroups(buckets);
+            progress.pause();
+        }
+
+        // Phase 3: Collapse copied directory trees into one group each
+        if (directoryIndex != null && !isCancelled()) {
+            updateMessage("Checking for duplicate directories...");
+            updateProgress(90, 100);
+            duplicateGroups = collapseDuplicateDirectories(duplicateGroups);
+        }
 
         // Sort by wasted space (most wasteful first)
         duplicateGroups.sort((g1, g2) -> Long.compare(g2.getWastedSize(), g1.getWastedSize()));
@@ -48,46 +210,115 @@ public class DuplicateFinderTask extends Task<List<DuplicateGroup>> {
         return duplicateGroups;
     }
 
-    private Map<Long, List<File>> scanAllDirectories() throws IOException {
-        Map<Long, List<File>> sizeMap = new ConcurrentHashMap<>();
-        // Estimate total files
-        estimatedTotalFiles = estimateTotalFileCount();
+    /**
+     * Disk-backed scan for trees whose file list does not fit in memory.
+     * Only the resulting groups are held on the heap.
+     */
+    private List<DuplicateGroup> runExternalScan() throws IOException {
+        List<Path> roots = new ArrayList<>();
+        for (File dir : directories) {
+            roots.add(dir.toPath().toAbsolutePath());
+        }
+
+        List<DuplicateGroup> duplicateGroups = new ArrayList<>();
+        ExternalDuplicateEngine engine = new ExternalDuplicateEngine(roots,
+                Paths.get(System.getProperty("java.io.tmpdir")), options.getHeapBudgetBytes(),
+                Runtime.getRuntime().availableProcessors(), this::updateMessage, this::isCancelled);
+        engine.setPathFilter(pathFilter);
+        engine.setThrottle(throttle);
+        updateProgress(-1, 1);
+        engine.run((size, hash, paths) -> {
+            List<File> files = new ArrayList<>(paths.size());
+            paths.forEach(path -> files.add(new File(path)));
+            DuplicateGroup group = new DuplicateGroup(size, hash, files);
+            duplicateGroups.add(group);
+            if (wastedSpaceTree != null) wastedSpaceTree.add(group);
+        });
+
+        duplicateGroups.sort((g1, g2) -> Long.compare(g2.getWastedSize(), g1.getWastedSize()));
+        updateMessage(String.format("Found %d duplicate groups", duplicateGroups.size()));
+        updateProgress(100, 100);
+        return duplicateGroups;
+    }
+
+    private void scanAllDirectories(SizeBuckets buckets) throws IOException, InterruptedException {
+        // The directory index keeps a single stack, so its walk cannot be split up
+        boolean parallelWalk = directoryIndex == null;
+        Phaser walks = new Phaser(1);
+        AtomicReference<IOException> walkError = new AtomicReference<>();
         for (File dirPath : directories) {
-            if (isCancelled()) return sizeMap;
+            if (isCancelled()) break;
 
-            File dir = Paths.get(dirPath.getAbsolutePath()).toFile();
-            if (!Files.exists(dir.toPath())) continue;
+            Path dir = Paths.get(dirPath.getAbsolutePath());
+            if (!Files.exists(dir)) continue;
             directoriesScanned.incrementAndGet();
             updateMessage(String.format("Scanning: %s (%d/%d directories)",
                     dir, directoriesScanned.get(), directories.size()));
-            scanDirectory(dir, sizeMap);
+
+            Object device = devices.deviceOf(dir);
+            devices.addMountPoint(dir, device);
+            if (parallelWalk && virtualThreads != null) {
+                if (pathFilter.acceptDirectory(dir)) {
+                    walkWithVirtualThreads(dir, device, buckets);
+                }
+            } else if (parallelWalk) {
+                submitWalk(dir, device, buckets, walks, walkError);
+            } else {
+                scanDirectory(dir, device, buckets, null, null);
+            }
         }
-        return sizeMap;
+        // Walks dropped by a cancel never arrive, so stop waiting once cancelled
+        int phase = walks.arrive();
+        while (!isCancelled()) {
+            try {
+                walks.awaitAdvanceInterruptibly(phase, CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                break;
+            } catch (TimeoutException e) {
+                // Check for a cancel and keep waiting
+            }
+        }
+        if (walkError.get() != null) throw walkError.get();
     }
 
-    private void scanDirectory(File directory, Map<Long, List<File>> sizeMap) throws IOException {
-        Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<>() {
+    /**
+     * Walk a subtree on its device's walker thread, so each device is walked
+     * at its own pace and a slow mount does not hold up the others.
+     */
+    private void submitWalk(Path dir, Object device, SizeBuckets buckets,
+                            Phaser walks, AtomicReference<IOException> walkError) {
+        walks.register();
+        try {
+            devices.walkExecutor(device).execute(() -> {
+                try {
+                    scanDirectory(dir, device, buckets, walks, walkError);
+                } catch (IOException e) {
+                    walkError.compareAndSet(null, e);
+                } finally {
+                    walks.arriveAndDeregister();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            walks.arriveAndDeregister();
+        }
+    }
+
+    /**
+     * @param walks if not null, subtrees on other devices are handed to their own walker
+     */
+    private void scanDirectory(Path root, Object rootDevice, SizeBuckets buckets,
+                               Phaser walks, AtomicReference<IOException> walkError) throws IOException {
+        Deque<Object> deviceStack = new ArrayDeque<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
                 if (isCancelled()) return FileVisitResult.TERMINATE;
 
-                long scanned = filesScanned.incrementAndGet();
-                long size = attrs.size();
-
-                // Update progress every 1000 files
-                if (scanned % 1000 == 0) {
-                    updateMessage(String.format("Scanned: %s files", formatNumber(scanned)));
-                    double progress = Math.min(40.0, 10.0 + 30.0 * scanned / estimatedTotalFiles);
-                    updateProgress(progress, 100);
+                if (!addWalkedFile(file, attrs, buckets)) {
+                    // The directory's content is no longer fully known, so it cannot be called a copy
+                    if (directoryIndex != null) directoryIndex.markIncomplete();
+                } else if (directoryIndex != null) {
+                    directoryIndex.addFile(file, attrs.size());
                 }
-
-                // Skip obviously unique files (0 or 1 byte)
-                if (size <= 1) return FileVisitResult.CONTINUE;
-
-                // Add to size map
-                sizeMap.computeIfAbsent(size, k -> Collections.synchronizedList(new ArrayList<>()))
-                        .add(file.toFile());
-
                 return FileVisitResult.CONTINUE;
             }
 
@@ -95,166 +326,679 @@ public class DuplicateFinderTask extends Task<List<DuplicateGroup>> {
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
                 if (isCancelled()) return FileVisitResult.TERMINATE;
 
-                String dirName = dir.getFileName().toString();
-                if (shouldSkipDirectory(dirName)) {
+                if (!pathFilter.acceptDirectory(dir)) {
+                    // Deleting a "copy" of the parent would also delete the skipped subtree
+                    if (directoryIndex != null) directoryIndex.markIncomplete();
                     return FileVisitResult.SKIP_SUBTREE;
                 }
+
+                Object parentDevice = deviceStack.isEmpty() ? rootDevice : deviceStack.peek();
+                Object device = dir.equals(root) ? rootDevice : devices.deviceOf(dir);
+                if (!device.equals(parentDevice)) {
+                    // A mount point
+                    if (options.isStayOnFileSystem()) {
+                        if (directoryIndex != null) directoryIndex.markIncomplete();
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    devices.addMountPoint(dir, device);
+                    if (walks != null) {
+                        submitWalk(dir, device, buckets, walks, walkError);
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                }
+                deviceStack.push(device);
+
+                if (directoryIndex != null) {
+                    directoryIndex.enterDirectory(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                deviceStack.pop();
+                if (directoryIndex != null) {
+                    if (exc != null) directoryIndex.markIncomplete();
+                    directoryIndex.exitDirectory();
+                }
                 return FileVisitResult.CONTINUE;
             }
 
             @Override
             public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                if (directoryIndex != null) {
+                    directoryIndex.markIncomplete();
+                }
                 return FileVisitResult.CONTINUE;
             }
         });
     }
 
-    private List<DuplicateGroup> findDuplicateGroups(Map<Long, List<File>> sizeMap) throws IOException {
-        List<DuplicateGroup> duplicateGroups = Collections.synchronizedList(new ArrayList<>());
-        long totalSizeGroups = sizeMap.size();
-        AtomicLong processedGroups = new AtomicLong();
+    /**
+     * Walk a tree with one virtual thread per directory. Each directory waits
+     * for its subdirectories in its own executor scope, so the walk ends when
+     * the root's scope closes and no task outlives it. Directory reads take an
+     * I/O permit from their device, so deep trees do not flood a slow disk.
+     */
+    private void walkWithVirtualThreads(Path dir, Object device, SizeBuckets buckets) {
+        if (isCancelled()) return;
+
+        List<Path> subdirectories = new ArrayList<>();
+        Semaphore permits = devices.ioPermits(device);
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (!throttle.acquireThread()) {
+            permits.release();
+            return;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                if (isCancelled()) return;
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    continue;
+                }
+                if (!attrs.isDirectory()) {
+                    addWalkedFile(entry, attrs, buckets);
+                } else if (pathFilter.acceptDirectory(entry)) {
+                    subdirectories.add(entry);
+                }
+            }
+        } catch (IOException e) {
+            // Unreadable directory, skipped like the blocking walker does
+        } finally {
+            throttle.releaseThread();
+            permits.release();
+        }
 
-        // Process size groups in parallel for speed
-        sizeMap.entrySet().parallelStream().forEach(entry -> {
-            if (isCancelled()) return;
+        try (ExecutorService scope = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Path subdirectory : subdirectories) {
+                Object subdirectoryDevice = devices.deviceOf(subdirectory);
+                if (!subdirectoryDevice.equals(device)) {
+                    // A mount point
+                    if (options.isStayOnFileSystem()) continue;
+                    devices.addMountPoint(subdirectory, subdirectoryDevice);
+                }
+                scope.submit(() -> walkWithVirtualThreads(subdirectory, subdirectoryDevice, buckets));
+            }
+        }
+    }
 
-            long size = entry.getKey();
-            List<File> sameSizeFiles = entry.getValue();
+    /**
+     * Count a walked file and add it to the size buckets if it can have duplicates.
+     *
+     * @return false if the path filter rejected the file
+     */
+    private boolean addWalkedFile(Path file, BasicFileAttributes attrs, SizeBuckets buckets) {
+        throttle.acquireFile();
+        if (!pathFilter.acceptFile(file, attrs)) return false;
+        long size = attrs.size();
+        progress.fileDiscovered(size);
+        if (catalog != null) catalog.recordFile(file, attrs);
+
+        // Skip obviously unique files (0 or 1 byte)
+        if (size <= 1) return true;
+
+        if (options.isScanArchives() && ArchiveScanner.isArchive(file.getFileName().toString())) {
+            archives.put(file, attrs);
+        }
+
+        buckets.add(file.toFile(), size);
+        return true;
+    }
 
-            // Update progress for this phase
-            long processed = processedGroups.incrementAndGet();
-            if (processed % 100 == 0) {
-                updateMessage(String.format("Checking duplicates: %d/%d size groups",
-                        processed, totalSizeGroups));
-                double progress = Math.min(90.0, 50.0 + 40.0 * processed / totalSizeGroups);
-                updateProgress(progress, 100);
+    private void scanArchiveEntries(SizeBuckets buckets) {
+        if (archiveScanner == null) {
+            archiveScanner = new ArchiveScanner();
+        }
+        AtomicLong archivesDone = new AtomicLong();
+
+        archives.entrySet().parallelStream().forEach(archive -> {
+            if (isCancelled() || !throttle.acquireFile()) return;
+            for (ArchiveScanner.HashedEntry entry : archiveScanner.scan(archive.getKey(), archive.getValue(), this::isCancelled)) {
+                File file = entry.getFile();
+                archiveEntries.put(file, entry);
+                buckets.add(file, file.length());
             }
+            updateMessage(String.format("Reading archives: %d/%d",
+                    archivesDone.incrementAndGet(), archives.size()));
+        });
+    }
 
-            // Only check files that could have duplicates
-            if (sameSizeFiles.size() > 1) {
-                try {
-                    List<DuplicateGroup> groupsForThisSize =
-                            findDuplicatesInSizeGroup(size, sameSizeFiles);
-                    duplicateGroups.addAll(groupsForThisSize);
-                } catch (IOException e) {
-                    // Skip this group on error
-                }
+    /**
+     * Measure each device that has not been measured yet, on its largest
+     * candidate file, before any of its hashing threads exist. Skipped when
+     * the scan is rate limited, since the measurement would only see the limit.
+     */
+    private void calibrateDevices(SizeBuckets buckets) throws InterruptedException {
+        if (throttle.isLimited() || isCancelled()) return;
+        Map<Object, File> samples = new HashMap<>(4);
+        Map<Object, Long> sampleSizes = new HashMap<>(4);
+        buckets.forEachLargeBucket((size, files) -> {
+            for (File file : files) {
+                if (archiveEntries.containsKey(file)) continue;
+                Object device = devices.deviceForFile(file);
+                if (devices.isCalibrated(device) || sampleSizes.getOrDefault(device, 0L) >= size) continue;
+                samples.put(device, file);
+                sampleSizes.put(device, size);
             }
+            return true;
         });
+        for (Map.Entry<Object, File> sample : samples.entrySet()) {
+            if (isCancelled()) return;
+            updateMessage("Measuring " + devices.describe(sample.getKey()) + "...");
+            devices.calibrate(sample.getKey(), sample.getValue());
+        }
+    }
 
+    /**
+     * Hash the size buckets as they are read back. Each bucket takes a
+     * permit per file (up to all of them) until its groups are done, so the
+     * files being hashed stay within the heap budget and, once the buckets
+     * spilled, reading them waits for hashing to catch up.
+     */
+    private List<DuplicateGroup> findDuplicateGroups(SizeBuckets buckets) throws IOException, InterruptedException {
+        List<DuplicateGroup> duplicateGroups = Collections.synchronizedList(new ArrayList<>());
+        // Queue the most that could be read up front: a quick and a full hash per candidate
+        buckets.forEachSize((size, count) ->
+                progress.queue(count, count * (Math.min(size, QUICK_HASH_BYTES) + size)));
+
+        // Also keeps the per-device queues short
+        int maxFilesInFlight = (int) Math.max(1024, Math.min(Integer.MAX_VALUE,
+                options.getHeapBudgetBytes() / 2 / BYTES_PER_FILE_IN_FLIGHT));
+        Semaphore inFlight = new Semaphore(maxFilesInFlight);
+
+        buckets.forEachBucket((size, sameSizeFiles) -> {
+            if (isCancelled()) return false;
+
+            int permits = Math.min(sameSizeFiles.size(), maxFilesInFlight);
+            if (!acquireUnlessCancelled(inFlight, permits)) return false;
+            findDuplicatesInSizeGroup(size, sameSizeFiles).whenComplete((groups, error) -> {
+                if (groups != null) {
+                    duplicateGroups.addAll(groups);
+                    if (wastedSpaceTree != null) groups.forEach(wastedSpaceTree::add);
+                }
+                inFlight.release(permits);
+            });
+            return true;
+        });
+
+        // Wait for the last groups to finish
+        acquireUnlessCancelled(inFlight, maxFilesInFlight);
         return duplicateGroups;
     }
 
-    private List<DuplicateGroup> findDuplicatesInSizeGroup(long size, List<File> sameSizeFiles)
-            throws IOException {
-        List<DuplicateGroup> groups = new ArrayList<>();
-
-        // Quick hash (first 4KB) for initial grouping
-        Map<String, List<File>> quickHashGroups = new HashMap<>();
-        for (File file : sameSizeFiles) {
-            String quickHash = calculateQuickHash(file, 4096);
-            quickHashGroups.computeIfAbsent(quickHash, k -> new ArrayList<>())
-                    .add(file);
+    /**
+     * Reads dropped by a cancel never complete, so waits for them give up once the task is cancelled.
+     *
+     * @return false if cancelled first
+     */
+    private boolean acquireUnlessCancelled(Semaphore semaphore, int permits) throws InterruptedException {
+        while (!semaphore.tryAcquire(permits, CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (isCancelled()) return false;
         }
+        return true;
+    }
 
-        // Full hash for potential duplicates
-        for (List<File> potentialDupes : quickHashGroups.values()) {
-            if (potentialDupes.size() > 1) {
-                Map<String, List<File>> fullHashGroups = new HashMap<>();
+    /**
+     * Quick hash (first 4KB) every file, then full hash the files whose quick
+     * hashes match, carrying on from the quick hash's CRC and, where it was
+     * kept open, its channel. Each read runs on the pool of the device
+     * holding the file. Digests stay primitive longs until a group is
+     * actually reported.
+     */
+    private CompletableFuture<List<DuplicateGroup>> findDuplicatesInSizeGroup(long size, List<File> sameSizeFiles) {
+        // Hashes from an earlier scan, for files that have not changed since
+        Map<String, FileCatalog.Entry> cached = catalog != null ? catalog.cachedHashes(size) : Map.of();
+        if (size <= SMALL_FILE_BYTES) {
+            return findSmallDuplicatesInSizeGroup(size, sameSizeFiles, cached);
+        }
+        PartialHash[] partials = new PartialHash[sameSizeFiles.size()];
+        return hashOnDevices(sameSizeFiles, true, cached, null, partials).thenCompose(quickHashes -> {
+            List<File> potentialDupes = new ArrayList<>();
+            long[] dupeQuickHashes = new long[quickHashes.length];
+            PartialHash[] dupePartials = new PartialHash[quickHashes.length];
+            HashGroups.forEachGroup(quickHashes, NO_HASH, (order, from, to) -> {
+                for (int i = from; i < to; i++) {
+                    dupeQuickHashes[potentialDupes.size()] = quickHashes[order[i]];
+                    dupePartials[potentialDupes.size()] = partials[order[i]];
+                    partials[order[i]] = null;
+                    potentialDupes.add(sameSizeFiles.get(order[i]));
+                }
+            });
+            // Files ruled out by their quick hash will not be read in full
+            int ruledOut = sameSizeFiles.size() - potentialDupes.size();
+            for (PartialHash partial : partials) {
+                if (partial != null) openHandles.discard(partial);
+            }
+            int continued = 0;
+            for (int i = 0; i < potentialDupes.size(); i++) {
+                if (dupePartials[i] != null) continued++;
+            }
+            progress.filesChecked(ruledOut);
+            // Continued full hashes skip the bytes the quick hash already read
+            progress.unqueue(ruledOut * size + continued * (long) QUICK_HASH_BYTES);
+            if (potentialDupes.isEmpty()) {
+                return CompletableFuture.completedFuture(List.<DuplicateGroup>of());
+            }
 
-                for (File file : potentialDupes) {
-                    String fullHash = calculateFullHash(file);
-                    fullHashGroups.computeIfAbsent(fullHash, k -> new ArrayList<>())
-                            .add(file);
+            return hashOnDevices(potentialDupes, false, cached, null, dupePartials).thenApply(fullHashes -> {
+                progress.filesChecked(potentialDupes.size());
+                // Both CRCs are 32 bits, so one long keeps files with different quick hashes apart
+                long[] keys = new long[fullHashes.length];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = fullHashes[i] == NO_HASH ? NO_HASH : (dupeQuickHashes[i] << 32) | fullHashes[i];
                 }
 
                 // Create DuplicateGroup for each hash match
-                for (Map.Entry<String, List<File>> hashEntry : fullHashGroups.entrySet()) {
-                    if (hashEntry.getValue().size() > 1) {
-
-                        DuplicateGroup group = new DuplicateGroup(
-                                size,
-                                hashEntry.getKey(),
-                                new ArrayList<>(hashEntry.getValue())
-                        );
-                        groups.add(group);}
+                List<DuplicateGroup> groups = new ArrayList<>();
+                HashGroups.forEachGroup(keys, NO_HASH, (order, from, to) -> {
+                    List<File> files = new ArrayList<>(to - from);
+                    for (int i = from; i < to; i++) {
+                        files.add(potentialDupes.get(order[i]));
+                    }
+                    groups.add(new DuplicateGroup(size, Long.toHexString(fullHashes[order[from]]), files));
+                });
+                return groups;
+            });
+        });
+    }
+
+    /**
+     * Files that fit in one read buffer are opened and read once: the quick
+     * and full hashes both come from that one pass, instead of a quick read
+     * of every file and a second, full read of the candidates.
+     */
+    private CompletableFuture<List<DuplicateGroup>> findSmallDuplicatesInSizeGroup(
+            long size, List<File> sameSizeFiles, Map<String, FileCatalog.Entry> cached) {
+        // Progress queued a quick read plus a full read; only the full read happens
+        progress.unqueue(sameSizeFiles.size() * Math.min(size, QUICK_HASH_BYTES));
+        long[] fullHashes = new long[sameSizeFiles.size()];
+        return hashOnDevices(sameSizeFiles, true, cached, fullHashes, null).thenApply(quickHashes -> {
+            progress.filesChecked(sameSizeFiles.size());
+            long[] keys = new long[fullHashes.length];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = quickHashes[i] == NO_HASH || fullHashes[i] == NO_HASH
+                        ? NO_HASH : (quickHashes[i] << 32) | fullHashes[i];
+            }
+
+            List<DuplicateGroup> groups = new ArrayList<>();
+            HashGroups.forEachGroup(keys, NO_HASH, (order, from, to) -> {
+                List<File> files = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    files.add(sameSizeFiles.get(order[i]));
+                }
+                groups.add(new DuplicateGroup(size, Long.toHexString(fullHashes[order[from]]), files));
+            });
+            return groups;
+        });
+    }
+
+    /**
+     * Hash the files on their devices. Files on the same device are read one
+     * after another by a single pool task, reusing that thread's buffer.
+     *
+     * @param cached catalog entries by path; their stored hashes are used instead of reading
+     * @param fullHashes if not null, small files are read whole: the result holds their quick
+     *                   hashes and this array their full hashes
+     * @param partials if not null, quick hashes store their hash state here and full hashes
+     *                 carry on from the states found here
+     * @return one digest per file, {@link #NO_HASH} where a file could not be read
+     */
+    private CompletableFuture<long[]> hashOnDevices(List<File> files, boolean quick, Map<String, FileCatalog.Entry> cached,
+                                                    long[] fullHashes, PartialHash[] partials) {
+        long[] hashes = new long[files.size()];
+        Arrays.fill(hashes, NO_HASH);
+        if (fullHashes != null) Arrays.fill(fullHashes, NO_HASH);
+        if (isCancelled()) return CompletableFuture.completedFuture(hashes);
+
+        Map<Object, BitSet> batches = new HashMap<>(4);
+        for (int i = 0; i < files.size(); i++) {
+            FileCatalog.Entry entry = cached.get(files.get(i).getPath());
+            if (fullHashes != null) {
+                if (entry != null && entry.getQuickHash() != null && entry.getFullHash() != null) {
+                    hashes[i] = entry.getQuickHash();
+                    fullHashes[i] = entry.getFullHash();
+                    progress.hashed(entry.getSize());
+                    continue;
                 }
+                batches.computeIfAbsent(devices.deviceForFile(files.get(i)), k -> new BitSet()).set(i);
+                continue;
             }
+            Long stored = entry == null ? null : quick ? entry.getQuickHash() : entry.getFullHash();
+            if (stored != null) {
+                hashes[i] = stored;
+                if (!quick && partials != null && partials[i] != null) openHandles.discard(partials[i]);
+                progress.hashed(quick ? Math.min(entry.getSize(), QUICK_HASH_BYTES) : entry.getSize());
+                continue;
+            }
+            batches.computeIfAbsent(devices.deviceForFile(files.get(i)), k -> new BitSet()).set(i);
         }
 
-        return groups;
+        List<CompletableFuture<Void>> reads = new ArrayList<>();
+        Runnable readHere = null;
+        for (Map.Entry<Object, BitSet> batch : batches.entrySet()) {
+            Object device = batch.getKey();
+            BitSet indexes = batch.getValue();
+            try {
+                if (options.isAsyncIo() || virtualThreads != null) {
+                    for (int i = indexes.nextSetBit(0); i >= 0; i = indexes.nextSetBit(i + 1)) {
+                        reads.add(hashConcurrently(files.get(i), quick, device, hashes, fullHashes, partials, i));
+                    }
+                } else {
+                    int readSize = devices.profile(device).getReadSize();
+                    Runnable batchRead = () -> {
+                        for (int i = indexes.nextSetBit(0); i >= 0; i = indexes.nextSetBit(i + 1)) {
+                            if (fullHashes != null) {
+                                readWholeHash(files.get(i), hashes, fullHashes, i);
+                            } else {
+                                hashes[i] = readHash(files.get(i), quick, partials, i, readSize);
+                            }
+                        }
+                    };
+                    // Full hashes started from the end of the group's quick hashes carry on at once,
+                    // while their files are still open, rather than behind every queued quick read
+                    if (!quick && readHere == null && devices.isHashThreadOf(device)) {
+                        readHere = batchRead;
+                    } else {
+                        reads.add(CompletableFuture.runAsync(batchRead, devices.hashExecutor(device)));
+                    }
+                }
+            } catch (RejectedExecutionException e) {
+                // Pools are shut down once the scan has ended
+            }
+        }
+        if (readHere != null) readHere.run();
+        return CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).thenApply(done -> hashes);
+    }
+
+    /**
+     * One read per file in flight, for the async and virtual-thread modes.
+     */
+    private CompletableFuture<Void> hashConcurrently(File file, boolean quick, Object device, long[] hashes,
+                                                     long[] fullHashes, PartialHash[] partials, int index) {
+        // Archive entries already carry their hashes
+        if (options.isAsyncIo() && !archiveEntries.containsKey(file)) {
+            throttle.acquireFile();
+            if (fullHashes != null) {
+                return devices.asyncHasher(device).crc32(file.toPath(), QUICK_HASH_BYTES, hashes, fullHashes, index)
+                        .thenRun(() -> {
+                            rememberHash(file, true, hashes[index]);
+                            rememberHash(file, false, fullHashes[index]);
+                        })
+                        .exceptionally(error -> null);
+            }
+            AsyncFileHasher hasher = devices.asyncHasher(device);
+            CompletableFuture<Void> read;
+            if (partials == null) {
+                read = hasher.crc32(file.toPath(), quick ? QUICK_HASH_BYTES : Long.MAX_VALUE, hashes, index);
+            } else if (quick) {
+                read = hasher.crc32(file.toPath(), QUICK_HASH_BYTES, hashes, partials, openHandles, index);
+            } else if (partials[index] != null) {
+                read = hasher.crc32(file.toPath(), partials[index], openHandles, hashes, index);
+            } else {
+                read = hasher.crc32(file.toPath(), Long.MAX_VALUE, hashes, index);
+            }
+            return read.thenRun(() -> rememberHash(file, quick, hashes[index]))
+                    .exceptionally(error -> null);
+        }
+
+        // One virtual thread per file; the device's permits bound how many read at once.
+        // Archive entries in async mode have no virtual threads and take the device's pool instead
+        Executor executor = virtualThreads != null ? virtualThreads : devices.hashExecutor(device);
+        Semaphore permits = devices.ioPermits(device);
+        return CompletableFuture.runAsync(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                if (fullHashes != null) {
+                    readWholeHash(file, hashes, fullHashes, index);
+                } else {
+                    hashes[index] = readHash(file, quick, partials, index, devices.profile(device).getReadSize());
+                }
+            } finally {
+                permits.release();
+            }
+        }, executor);
+    }
+
+    /**
+     * @param readSize bytes per read for a full hash, from the device's profile
+     */
+    private long readHash(File file, boolean quick, PartialHash[] partials, int index, int readSize) {
+        if (isCancelled() || !throttle.acquireThread()) return NO_HASH;
+        try {
+            long hash = quick
+                    ? calculateQuickHash(file, QUICK_HASH_BYTES, partials, index)
+                    : calculateFullHash(file, partials != null ? partials[index] : null, readSize);
+            rememberHash(file, quick, hash);
+            return hash;
+        } catch (IOException e) {
+            // Unreadable or vanished, not a duplicate of anything
+            return NO_HASH;
+        } finally {
+            throttle.releaseThread();
+        }
+    }
+
+    /**
+     * Read a small file whole and store both of its hashes, or leave them at
+     * {@link #NO_HASH} if it cannot be read.
+     */
+    private void readWholeHash(File file, long[] quickHashes, long[] fullHashes, int index) {
+        if (isCancelled() || !throttle.acquireThread()) return;
+        try {
+            calculateWholeHashes(file, quickHashes, fullHashes, index);
+            rememberHash(file, true, quickHashes[index]);
+            rememberHash(file, false, fullHashes[index]);
+        } catch (IOException e) {
+            // Unreadable or vanished, not a duplicate of anything
+            quickHashes[index] = NO_HASH;
+            fullHashes[index] = NO_HASH;
+        } finally {
+            throttle.releaseThread();
+        }
+    }
+
+    private void rememberHash(File file, boolean quick, long hash) {
+        if (catalog == null || hash == NO_HASH) return;
+        if (quick) {
+            catalog.recordQuickHash(file, hash);
+        } else {
+            catalog.recordFullHash(file, hash);
+        }
+    }
+
+    private List<DuplicateGroup> collapseDuplicateDirectories(List<DuplicateGroup> fileGroups) {
+        Map<File, String> fileHashes = new HashMap<>();
+        for (DuplicateGroup group : fileGroups) {
+            // Size is part of the key because CRC32 alone is too short to trust across sizes
+            String key = group.getSize() + ":" + group.getFileHash();
+            group.getFiles().forEach(file -> fileHashes.put(file, key));
+        }
+
+        List<DuplicateGroup> result = new ArrayList<>(directoryIndex.findDuplicateDirectories(fileHashes));
+
+        // Files inside copied directories are already covered by those and left out of their groups.
+        // A single file left over keeps one covered copy, so it is still shown as a duplicate
+        for (DuplicateGroup group : fileGroups) {
+            List<File> uncovered = new ArrayList<>(group.getFiles().size());
+            File representative = null;
+            for (File file : group.getFiles()) {
+                if (!directoryIndex.isInsideDuplicateDirectory(file)) {
+                    uncovered.add(file);
+                } else if (representative == null) {
+                    representative = file;
+                }
+            }
+            if (uncovered.size() == group.getFiles().size()) {
+                result.add(group);
+            } else if (!uncovered.isEmpty()) {
+                if (uncovered.size() == 1) uncovered.add(representative);
+                result.add(new DuplicateGroup(group.getSize(), group.getFileHash(), uncovered));
+            }
+        }
+        return result;
     }
 
     // Hash calculation methods
-    private String calculateQuickHash(File file, int bytes) throws IOException {
-        try (var in = Files.newInputStream(file.toPath())) {
-            byte[] buffer = new byte[bytes];
-            int read = in.read(buffer);
-            if (read > 0) {
-                // Use CRC32 for speed
-                java.util.zip.CRC32 crc = new java.util.zip.CRC32();
-                crc.update(buffer, 0, read);
-                return Long.toHexString(crc.getValue());
+
+    /**
+     * @param partials if not null, the hash state and open channel are kept in partials[index]
+     *                 for the full hash to carry on from
+     */
+    private long calculateQuickHash(File file, int bytes, PartialHash[] partials, int index) throws IOException {
+        // Archive entries were hashed while their archive was streamed
+        ArchiveScanner.HashedEntry entry = archiveEntries.get(file);
+        if (entry != null) {
+            progress.hashed(Math.min(file.length(), bytes));
+            return entry.getQuickHash();
+        }
+
+        // Use CRC32 for speed
+        throttle.acquireFile();
+        HashState state = acquireHashState();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer buffer = state.direct(bytes).clear().limit(bytes);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Short reads are possible on some filesystems
             }
+            int read = buffer.flip().remaining();
+            progress.hashed(read);
+            throttle.acquireBytes(read);
+            state.crc.update(buffer);
+            long quickHash = state.crc.getValue();
+            if (partials != null) {
+                partials[index] = openHandles.keep(quickHash, read, channel);
+                channel = null;
+            }
+            return quickHash;
+        } finally {
+            if (channel != null) channel.close();
+            releaseHashState(state);
         }
-        return "empty";
     }
 
-    private String calculateFullHash(File file) throws IOException {
-        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
-        try (var in = Files.newInputStream(file.toPath())) {
-            byte[] buffer = new byte[8192];
+    /**
+     * @param partial if not null, the quick hash's state to carry on from
+     */
+    private long calculateFullHash(File file, PartialHash partial, int readSize) throws IOException {
+        ArchiveScanner.HashedEntry entry = archiveEntries.get(file);
+        if (entry != null) {
+            progress.hashed(file.length());
+            return entry.getFullHash();
+        }
+
+        HashState state = acquireHashState();
+        try (FileChannel channel = openAt(file, partial)) {
+            SparseCrc32 crc = state.crc;
+            if (partial != null) crc.reset(partial.getCrc());
+            ByteBuffer buffer = state.direct(readSize);
             int read;
-            while ((read = in.read(buffer)) != -1) {
-                if (isCancelled()) return "cancelled";
-                crc.update(buffer, 0, read);
+            while ((read = channel.read(buffer.clear().limit(readSize))) != -1) {
+                if (isCancelled()) return NO_HASH;
+                // Zero chunks, such as the holes of sparse images, cost no CRC arithmetic
+                crc.update(buffer.flip());
+                progress.hashed(read);
+                if (!throttle.acquireBytes(read)) return NO_HASH;
             }
+            return crc.getValue();
+        } finally {
+            releaseHashState(state);
         }
-        return Long.toHexString(crc.getValue());
     }
 
-    // Helper methods
-    private boolean shouldSkipDirectory(String dirName) {
-        return dirName.startsWith(".") ||
-                dirName.equals("node_modules") ||
-                dirName.equals("target") ||
-                dirName.equals("bin") ||
-                dirName.equals("obj") ||
-                dirName.startsWith("$");
+    /**
+     * @return the channel kept open since the quick hash, or the file opened
+     *         again at the partial hash's position (the start without one)
+     */
+    private FileChannel openAt(File file, PartialHash partial) throws IOException {
+        Channel kept = partial != null ? openHandles.take(partial) : null;
+        if (kept instanceof FileChannel) return (FileChannel) kept;
+        if (kept != null) kept.close();
+
+        throttle.acquireFile();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        if (partial != null) {
+            try {
+                channel.position(partial.getPosition());
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+        return channel;
     }
 
-    private long estimateTotalFileCount() throws IOException {
-        long total = 0;
-        for (File dirPath : directories) {
-            Path dir = Paths.get(dirPath.getAbsolutePath());
-            if (Files.exists(dir)) {
-                total += quickEstimate(dir);
-            }
+    /**
+     * One read of up to a buffer's worth, then both CRCs from memory: the
+     * quick one over the first {@link #QUICK_HASH_BYTES}, the full one over
+     * everything, the same values the separate reads would give.
+     */
+    private void calculateWholeHashes(File file, long[] quickHashes, long[] fullHashes, int index) throws IOException {
+        ArchiveScanner.HashedEntry entry = archiveEntries.get(file);
+        if (entry != null) {
+            progress.hashed(file.length());
+            quickHashes[index] = entry.getQuickHash();
+            fullHashes[index] = entry.getFullHash();
+            return;
+        }
+
+        throttle.acquireFile();
+        HashState state = acquireHashState();
+        try (var in = Files.newInputStream(file.toPath())) {
+            int read = in.readNBytes(state.buffer, 0, state.buffer.length);
+            progress.hashed(read);
+            if (!throttle.acquireBytes(read)) return;
+            state.crc.update(state.buffer, 0, Math.min(read, QUICK_HASH_BYTES));
+            long quickHash = state.crc.getValue();
+            state.crc.reset();
+            state.crc.update(state.buffer, 0, read);
+            quickHashes[index] = quickHash;
+            fullHashes[index] = state.crc.getValue();
+        } finally {
+            releaseHashState(state);
         }
-        return Math.max(total, 10000);
     }
 
-    private long quickEstimate(Path dir) throws IOException {
-        AtomicLong count = new AtomicLong();
-        try {
-            Files.walk(dir, 2)
-                    .filter(Files::isRegularFile)
-                    .limit(1000)
-                    .forEach(f -> count.incrementAndGet());
-        } catch (Exception e) {
-            // Estimation failed
+    private HashState acquireHashState() {
+        HashState state = Thread.currentThread().isVirtual() ? virtualHashStates.poll() : HASH_STATES.get();
+        if (state == null) state = new HashState();
+        state.crc.reset();
+        return state;
+    }
+
+    private void releaseHashState(HashState state) {
+        if (Thread.currentThread().isVirtual()) {
+            virtualHashStates.offer(state);
         }
-        return count.get() * 100; // Rough extrapolation
     }
 
-    private String formatNumber(long number) {
-        if (number >= 1_000_000_000) {
-            return String.format("%.1fB", number / 1_000_000_000.0);
-        } else if (number >= 1_000_000) {
-            return String.format("%.1fM", number / 1_000_000.0);
-        } else if (number >= 1_000) {
-            return String.format("%.1fK", number / 1_000.0);
+    /**
+     * Read buffer and CRC reused from one file to the next.
+     */
+    private static class HashState {
+        final byte[] buffer = new byte[READ_BUFFER_SIZE];
+        final SparseCrc32 crc = new SparseCrc32();
+        // Channel reads land here without a copy through a temporary direct buffer
+        private ByteBuffer direct = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        /**
+         * @return the direct buffer, grown to hold at least size bytes
+         */
+        ByteBuffer direct(int size) {
+            if (direct.capacity() < size) direct = ByteBuffer.allocateDirect(size);
+            return direct;
         }
-        return Long.toString(number);
     }
-}
\ No newline at end of file
+}
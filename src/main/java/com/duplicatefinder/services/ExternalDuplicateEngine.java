@@ -0,0 +1,340 @@
+package com.duplicatefinder.services;
+
+import com.duplicatefinder.utils.ExternalLongSorter;
+import com.duplicatefinder.utils.FileUtils;
+import com.duplicatefinder.utils.PathFilter;
+import com.duplicatefinder.utils.PathStore;
+import com.duplicatefinder.utils.SparseCrc32;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Out-of-core duplicate detection for trees too large to hold in memory.
+ *
+ * Nothing per-file stays on the heap: paths go to a {@link PathStore} on disk
+ * and every stage spills its records to sorted runs.
+ * <ol>
+ *   <li>walk: (size, pathId) records</li>
+ *   <li>equal-size runs: (size, quickHash, pathId) records</li>
+ *   <li>equal quick-hash runs: (size, digestHigh, digestLow, pathId) records</li>
+ *   <li>equal digest runs are reported as groups, one at a time</li>
+ * </ol>
+ * Each stage reads the previous stage's merge stream, so at most two sorters
+ * hold buffers at once and the heap budget is split between them.
+ */
+public class ExternalDuplicateEngine {
+    private static final int QUICK_HASH_BYTES = 4096;
+    private static final int READ_BUFFER = 128 * 1024;
+    // Tags in the full digest's input, so a zero run can never read as data
+    private static final byte DATA_BLOCK = 'D';
+    private static final byte ZERO_RUN = 'Z';
+    private static final long PROGRESS_EVERY = 100_000;
+
+    public interface GroupListener {
+        void onGroup(long size, String hash, List<String> paths) throws IOException;
+    }
+
+    private final List<Path> roots;
+    private final Path workDirectory;
+    private final int recordsPerSorter;
+    private final int hashThreads;
+    private final Consumer<String> progress;
+    private final BooleanSupplier cancelled;
+    private PathFilter pathFilter = PathFilter.defaults();
+    private ScanThrottle throttle = new ScanThrottle();
+
+    private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[READ_BUFFER]);
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(ExternalDuplicateEngine::newDigest);
+
+    /**
+     * @param heapBudgetBytes memory for sort buffers; two stages are active at a time
+     */
+    public ExternalDuplicateEngine(List<Path> roots, Path workDirectory, long heapBudgetBytes, int hashThreads,
+                                   Consumer<String> progress, BooleanSupplier cancelled) {
+        this.roots = roots;
+        this.workDirectory = workDirectory;
+        // The widest record is 4 longs (32 bytes)
+        this.recordsPerSorter = (int) Math.max(1024, Math.min(Integer.MAX_VALUE / 4, heapBudgetBytes / 2 / 32));
+        this.hashThreads = Math.max(1, hashThreads);
+        this.progress = progress;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Replace the default directory exclusions with configured rules.
+     */
+    public void setPathFilter(PathFilter pathFilter) {
+        this.pathFilter = pathFilter;
+    }
+
+    /**
+     * Limit read rate, file rate and hashing threads; may be adjusted while running.
+     */
+    public void setThrottle(ScanThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * @return number of duplicate groups reported
+     */
+    public long run(GroupListener listener) throws IOException {
+        Path runDir = Files.createTempDirectory(workDirectory, "external-scan");
+        try (PathStore paths = new PathStore(runDir.resolve("paths.bin"))) {
+            // Stage 1: walk
+            ExternalLongSorter bySize = new ExternalLongSorter(2, 1, recordsPerSorter, runDir);
+            try {
+                walk(paths, bySize);
+                paths.seal();
+                progress.accept(String.format("Walked %d files (%d MB of paths on disk)",
+                        bySize.size(), paths.sizeInBytes() >> 20));
+                if (cancelled.getAsBoolean()) return 0;
+
+                // Stage 2: quick hash of files sharing a size
+                ExternalLongSorter byQuickHash = new ExternalLongSorter(3, 2, recordsPerSorter, runDir);
+                try {
+                    hashRuns(bySize, 1, paths, byQuickHash, (record, path) ->
+                            new long[]{record[0], quickHash(path), record[1]});
+                    bySize.close();
+                    progress.accept(String.format("%d files share a size with another file", byQuickHash.size()));
+                    if (cancelled.getAsBoolean()) return 0;
+
+                    // Stage 3: full digest of files sharing size and quick hash
+                    ExternalLongSorter byDigest = new ExternalLongSorter(4, 3, recordsPerSorter, runDir);
+                    try {
+                        hashRuns(byQuickHash, 2, paths, byDigest, (record, path) -> {
+                            long[] digest = fullDigest(path);
+                            return new long[]{record[0], digest[0], digest[1], record[2]};
+                        });
+                        byQuickHash.close();
+                        progress.accept(String.format("%d files share a quick hash with another file", byDigest.size()));
+                        if (cancelled.getAsBoolean()) return 0;
+
+                        // Stage 4: report groups
+                        return reportGroups(byDigest, paths, listener);
+                    } finally {
+                        byDigest.close();
+                    }
+                } finally {
+                    byQuickHash.close();
+                }
+            } finally {
+                bySize.close();
+            }
+        } finally {
+            FileUtils.deleteFiles(List.of(runDir));
+        }
+    }
+
+    private void walk(PathStore paths, ExternalLongSorter bySize) throws IOException {
+        for (Path root : roots) {
+            if (cancelled.getAsBoolean() || !Files.exists(root)) continue;
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (cancelled.getAsBoolean()) return FileVisitResult.TERMINATE;
+                    throttle.acquireFile();
+                    // Skip obviously unique files (0 or 1 byte)
+                    if (attrs.isRegularFile() && attrs.size() > 1 && pathFilter.acceptFile(file, attrs)) {
+                        bySize.add(attrs.size(), paths.add(file.toString()));
+                        if (bySize.size() % PROGRESS_EVERY == 0) {
+                            progress.accept(String.format("Walked %d files", bySize.size()));
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (cancelled.getAsBoolean()) return FileVisitResult.TERMINATE;
+                    if (!pathFilter.acceptDirectory(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+
+    private interface RecordHasher {
+        long[] hash(long[] record, Path path) throws IOException;
+    }
+
+    /**
+     * Stream the sorted input; every record whose first keyWidth longs match a
+     * neighbour is hashed on the worker pool and added to the output sorter.
+     * Only the first record of the current run is held back, nothing is buffered.
+     */
+    private void hashRuns(ExternalLongSorter input, int keyWidth, PathStore paths, ExternalLongSorter output,
+                          RecordHasher hasher) throws IOException {
+        // Bounded queue with caller-runs: the merge thread slows down instead of queueing unboundedly
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(hashThreads, hashThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(hashThreads * 64), new ThreadPoolExecutor.CallerRunsPolicy());
+        AtomicLong hashed = new AtomicLong();
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+
+        Consumer<long[]> submit = record -> pool.execute(() -> {
+            if (cancelled.getAsBoolean() || !throttle.acquireThread()) return;
+            try {
+                output.add(hasher.hash(record, Paths.get(paths.get(idOf(record)))));
+            } catch (NoSuchFileException | AccessDeniedException | InterruptedIOException e) {
+                // File vanished or is unreadable since the walk, or the scan was cancelled
+            } catch (IOException e) {
+                failures.add(e);
+            } finally {
+                throttle.releaseThread();
+            }
+            long done = hashed.incrementAndGet();
+            if (done % PROGRESS_EVERY == 0) {
+                progress.accept(String.format("Hashed %d files", done));
+            }
+        });
+
+        try (ExternalLongSorter.MergeIterator it = input.sortedIterator()) {
+            long[] record = new long[input.getRecordWidth()];
+            long[] runFirst = null;
+            boolean firstSubmitted = false;
+            while (it.next(record) && !cancelled.getAsBoolean()) {
+                if (runFirst != null && sameKey(runFirst, record, keyWidth)) {
+                    if (!firstSubmitted) {
+                        submit.accept(runFirst);
+                        firstSubmitted = true;
+                    }
+                    submit.accept(record.clone());
+                } else {
+                    runFirst = record.clone();
+                    firstSubmitted = false;
+                }
+            }
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pool.shutdownNow();
+            }
+        }
+        if (!failures.isEmpty()) {
+            progress.accept(String.format("Skipped %d unreadable files (first: %s)",
+                    failures.size(), failures.get(0).getMessage()));
+        }
+    }
+
+    private long reportGroups(ExternalLongSorter byDigest, PathStore paths, GroupListener listener) throws IOException {
+        long groups = 0;
+        try (ExternalLongSorter.MergeIterator it = byDigest.sortedIterator()) {
+            long[] record = new long[4];
+            long[] current = null;
+            List<String> members = new ArrayList<>();
+            while (it.next(record)) {
+                if (current != null && !sameKey(current, record, 3)) {
+                    if (emit(current, members, listener)) groups++;
+                    members.clear();
+                }
+                if (current == null || members.isEmpty()) {
+                    current = record.clone();
+                }
+                members.add(paths.get(record[3]));
+            }
+            if (current != null && emit(current, members, listener)) groups++;
+        }
+        return groups;
+    }
+
+    private boolean emit(long[] key, List<String> members, GroupListener listener) throws IOException {
+        if (members.size() < 2) return false;
+        listener.onGroup(key[0], String.format("%016x%016x", key[1], key[2]), new ArrayList<>(members));
+        return true;
+    }
+
+    private static boolean sameKey(long[] a, long[] b, int keyWidth) {
+        for (int i = 0; i < keyWidth; i++) {
+            if (a[i] != b[i]) return false;
+        }
+        return true;
+    }
+
+    private static long idOf(long[] record) {
+        return record[record.length - 1];
+    }
+
+    private long quickHash(Path file) throws IOException {
+        byte[] buffer = buffers.get();
+        throttle.acquireFile();
+        try (InputStream in = Files.newInputStream(file)) {
+            int read = in.readNBytes(buffer, 0, QUICK_HASH_BYTES);
+            throttle.acquireBytes(read);
+            CRC32 crc = new CRC32();
+            crc.update(buffer, 0, read);
+            return crc.getValue();
+        }
+    }
+
+    /**
+     * SHA-256 over whole buffers, each tagged as data, except that a run of
+     * all-zero buffers (the holes of a sparse file) is digested as just its
+     * length. Buffers start at fixed offsets, so equal files give equal digests.
+     */
+    private long[] fullDigest(Path file) throws IOException {
+        MessageDigest digest = digests.get();
+        digest.reset();
+        byte[] buffer = buffers.get();
+        long zeroRun = 0;
+        throttle.acquireFile();
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.readNBytes(buffer, 0, buffer.length)) > 0) {
+                if (cancelled.getAsBoolean() || !throttle.acquireBytes(read)) {
+                    throw new InterruptedIOException("Scan cancelled");
+                }
+                if (SparseCrc32.isAllZero(buffer, 0, read)) {
+                    zeroRun += read;
+                    continue;
+                }
+                if (zeroRun > 0) {
+                    digestZeroRun(digest, zeroRun);
+                    zeroRun = 0;
+                }
+                digest.update(DATA_BLOCK);
+                digest.update(buffer, 0, read);
+            }
+        }
+        if (zeroRun > 0) digestZeroRun(digest, zeroRun);
+        ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+        return new long[]{hash.getLong(0), hash.getLong(8)};
+    }
+
+    private static void digestZeroRun(MessageDigest digest, long length) {
+        digest.update(ZERO_RUN);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            digest.update((byte) (length >>> shift));
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.duplicatefinder.services;
+
+import com.duplicatefinder.models.ArchiveEntryFile;
+import com.duplicatefinder.models.DuplicateGroup;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent catalog of scanned files and of the duplicates each scan found,
+ * kept in an embedded H2 database so scan history can be queried without
+ * rescanning. It doubles as a hash cache: a file whose size, modification
+ * time and inode are unchanged since the last scan keeps its stored hashes.
+ *
+ * Writes from the scan are buffered and sent in JDBC batches. A database
+ * error during a scan is reported once and turns the catalog off for the
+ * rest of that scan, so the scan itself never fails because of it.
+ */
+public class FileCatalog implements AutoCloseable {
+    private static final int BATCH_SIZE = 1000;
+
+    // A changed size, mtime or inode clears the stored hashes; SET expressions see the old row
+    private static final String MERGE_FILE =
+            "MERGE INTO files f USING (VALUES (CAST(? AS VARCHAR), CAST(? AS BIGINT), CAST(? AS BIGINT),"
+                    + " CAST(? AS VARCHAR), CAST(? AS BIGINT))) AS s(path, size, modified, inode, scan_id)"
+                    + " ON f.path = s.path"
+                    + " WHEN MATCHED THEN UPDATE SET"
+                    + "  quick_hash = CASE WHEN f.size = s.size AND f.modified = s.modified"
+                    + "   AND f.inode IS NOT DISTINCT FROM s.inode THEN f.quick_hash END,"
+                    + "  full_hash = CASE WHEN f.size = s.size AND f.modified = s.modified"
+                    + "   AND f.inode IS NOT DISTINCT FROM s.inode THEN f.full_hash END,"
+                    + "  size = s.size, modified = s.modified, inode = s.inode, last_scan = s.scan_id"
+                    + " WHEN NOT MATCHED THEN INSERT (path, size, modified, inode, first_scan, last_scan)"
+                    + "  VALUES (s.path, s.size, s.modified, s.inode, s.scan_id, s.scan_id)";
+    private static final String UPDATE_QUICK_HASH = "UPDATE files SET quick_hash = ? WHERE path = ?";
+    private static final String UPDATE_FULL_HASH = "UPDATE files SET full_hash = ? WHERE path = ?";
+    private static final String INSERT_DUPLICATE =
+            "INSERT INTO duplicates (scan_id, size, hash, path, directory, wasted) VALUES (?, ?, ?, ?, ?, ?)";
+
+    /** Stored state of one file, as returned by the lookups */
+    public static class Entry {
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final Long quickHash;
+        private final Long fullHash;
+
+        Entry(String path, long size, long modified, Long quickHash, Long fullHash) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.quickHash = quickHash;
+            this.fullHash = fullHash;
+        }
+
+        public String getPath() { return path; }
+        public long getSize() { return size; }
+        public long getModified() { return modified; }
+        /** null if not hashed since the file last changed */
+        public Long getQuickHash() { return quickHash; }
+        public Long getFullHash() { return fullHash; }
+    }
+
+    private final Connection connection;
+    private final Map<String, Batch> batches = new HashMap<>();
+    private long scanId = -1;
+    private boolean failed;
+
+    /**
+     * Open or create the catalog at the given path (H2 adds ".mv.db").
+     */
+    public FileCatalog(Path database) throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:file:" + database.toAbsolutePath(), "sa", "");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS scans ("
+                    + "id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,"
+                    + " started TIMESTAMP NOT NULL, roots VARCHAR NOT NULL)");
+            statement.execute("CREATE TABLE IF NOT EXISTS files ("
+                    + "path VARCHAR PRIMARY KEY, size BIGINT NOT NULL, modified BIGINT NOT NULL, inode VARCHAR,"
+                    + " quick_hash BIGINT, full_hash BIGINT, first_scan BIGINT, last_scan BIGINT)");
+            statement.execute("CREATE INDEX IF NOT EXISTS files_size ON files (size, full_hash)");
+            statement.execute("CREATE TABLE IF NOT EXISTS duplicates ("
+                    + "scan_id BIGINT NOT NULL, size BIGINT NOT NULL, hash VARCHAR, path VARCHAR NOT NULL,"
+                    + " directory VARCHAR NOT NULL, wasted BIGINT NOT NULL)");
+            statement.execute("CREATE INDEX IF NOT EXISTS duplicates_path ON duplicates (path)");
+            statement.execute("CREATE INDEX IF NOT EXISTS duplicates_directory ON duplicates (directory, scan_id)");
+            statement.execute("CREATE INDEX IF NOT EXISTS duplicates_hash ON duplicates (size, hash)");
+        }
+        connection.setAutoCommit(false);
+    }
+
+    /**
+     * Start recording a scan of the given roots.
+     */
+    public synchronized void beginScan(List<File> roots) throws SQLException {
+        StringBuilder rootList = new StringBuilder();
+        for (File root : roots) {
+            if (rootList.length() > 0) rootList.append(File.pathSeparator);
+            rootList.append(root.getAbsolutePath());
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO scans (started, roots) VALUES (CURRENT_TIMESTAMP, ?)", Statement.RETURN_GENERATED_KEYS)) {
+            insert.setString(1, rootList.toString());
+            insert.executeUpdate();
+            try (ResultSet keys = insert.getGeneratedKeys()) {
+                keys.next();
+                scanId = keys.getLong(1);
+            }
+        }
+        connection.commit();
+        failed = false;
+    }
+
+    /**
+     * Record a file seen by the walk. Stored hashes survive only if it is unchanged.
+     */
+    public synchronized void recordFile(Path file, BasicFileAttributes attrs) {
+        Object inode = attrs.fileKey();
+        add(MERGE_FILE, file.toString(), attrs.size(), attrs.lastModifiedTime().toMillis(),
+                inode != null ? inode.toString() : null, scanId);
+    }
+
+    public synchronized void recordQuickHash(File file, long hash) {
+        if (!(file instanceof ArchiveEntryFile)) add(UPDATE_QUICK_HASH, hash, file.getPath());
+    }
+
+    public synchronized void recordFullHash(File file, long hash) {
+        if (!(file instanceof ArchiveEntryFile)) add(UPDATE_FULL_HASH, hash, file.getPath());
+    }
+
+    /**
+     * Record the groups this scan reported, one row per member. All members
+     * but the first count as wasted, which the growth query sums up.
+     */
+    public synchronized void recordGroups(List<DuplicateGroup> groups) {
+        for (DuplicateGroup group : groups) {
+            boolean first = true;
+            for (File file : group.getFiles()) {
+                String parent = file.getParent();
+                add(INSERT_DUPLICATE, scanId, group.getSize(), group.getFileHash(), file.getPath(),
+                        parent != null ? parent : "", first ? 0L : group.getSize());
+                first = false;
+            }
+        }
+    }
+
+    /**
+     * Hashes stored for the files of one size that the current scan has seen.
+     * Call {@link #flush()} after the walk so its records are visible here.
+     */
+    public synchronized Map<String, Entry> cachedHashes(long size) {
+        Map<String, Entry> entries = new HashMap<>();
+        if (failed) return entries;
+        try {
+            try (PreparedStatement query = connection.prepareStatement(
+                    "SELECT path, size, modified, quick_hash, full_hash FROM files"
+                            + " WHERE size = ? AND last_scan = ? AND quick_hash IS NOT NULL")) {
+                query.setLong(1, size);
+                query.setLong(2, scanId);
+                try (ResultSet rows = query.executeQuery()) {
+                    while (rows.next()) {
+                        Entry entry = readEntry(rows);
+                        entries.put(entry.getPath(), entry);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            disable(e);
+        }
+        return entries;
+    }
+
+    /**
+     * Write everything buffered so far.
+     */
+    public synchronized void flush() {
+        if (failed) return;
+        try {
+            flushBatches();
+        } catch (SQLException e) {
+            disable(e);
+        }
+    }
+
+    // Queries over the history
+
+    /**
+     * Files of the given size, optionally with the given full hash, from any scan.
+     */
+    public synchronized List<Entry> findBySize(long size, Long fullHash) throws SQLException {
+        String sql = "SELECT path, size, modified, quick_hash, full_hash FROM files WHERE size = ?"
+                + (fullHash != null ? " AND full_hash = ?" : "") + " ORDER BY path";
+        List<Entry> entries = new ArrayList<>();
+        try (PreparedStatement query = connection.prepareStatement(sql)) {
+            query.setLong(1, size);
+            if (fullHash != null) query.setLong(2, fullHash);
+            try (ResultSet rows = query.executeQuery()) {
+                while (rows.next()) {
+                    entries.add(readEntry(rows));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return when a scan first reported this file as part of a duplicate group, or null if never
+     */
+    public synchronized Timestamp firstSeenAsDuplicate(String path) throws SQLException {
+        try (PreparedStatement query = connection.prepareStatement(
+                "SELECT MIN(s.started) FROM duplicates d JOIN scans s ON s.id = d.scan_id WHERE d.path = ?")) {
+            query.setString(1, path);
+            try (ResultSet rows = query.executeQuery()) {
+                return rows.next() ? rows.getTimestamp(1) : null;
+            }
+        }
+    }
+
+    /**
+     * Wasted bytes under a directory (recursively) for every scan that found duplicates there.
+     *
+     * @return scan start time to wasted bytes, oldest first
+     */
+    public synchronized Map<Timestamp, Long> wastedSpaceHistory(String directory) throws SQLException {
+        String prefix = directory.endsWith(File.separator) ? directory : directory + File.separator;
+        Map<Timestamp, Long> history = new LinkedHashMap<>();
+        try (PreparedStatement query = connection.prepareStatement(
+                "SELECT s.started, SUM(d.wasted) FROM duplicates d JOIN scans s ON s.id = d.scan_id"
+                        + " WHERE d.directory = ? OR d.directory LIKE ? ESCAPE '\\'"
+                        + " GROUP BY s.id, s.started ORDER BY s.started")) {
+            query.setString(1, directory);
+            query.setString(2, escapeLike(prefix) + "%");
+            try (ResultSet rows = query.executeQuery()) {
+                while (rows.next()) {
+                    history.put(rows.getTimestamp(1), rows.getLong(2));
+                }
+            }
+        }
+        return history;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (!failed) flushBatches();
+            for (Batch batch : batches.values()) {
+                batch.statement.close();
+            }
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("Could not close file catalog: " + e.getMessage());
+        }
+    }
+
+    private void add(String sql, Object... values) {
+        if (failed || scanId < 0) return;
+        try {
+            Batch batch = batches.get(sql);
+            if (batch == null) {
+                batch = new Batch(connection.prepareStatement(sql));
+                batches.put(sql, batch);
+            }
+            for (int i = 0; i < values.length; i++) {
+                batch.statement.setObject(i + 1, values[i]);
+            }
+            batch.statement.addBatch();
+            if (++batch.pending >= BATCH_SIZE) {
+                flushBatches();
+            }
+        } catch (SQLException e) {
+            disable(e);
+        }
+    }
+
+    /**
+     * Run the pending batches in the order the tables depend on each other:
+     * file rows must exist before their hashes are updated.
+     */
+    private void flushBatches() throws SQLException {
+        for (String sql : List.of(MERGE_FILE, UPDATE_QUICK_HASH, UPDATE_FULL_HASH, INSERT_DUPLICATE)) {
+            Batch batch = batches.get(sql);
+            if (batch != null && batch.pending > 0) {
+                batch.statement.executeBatch();
+                batch.pending = 0;
+            }
+        }
+        connection.commit();
+    }
+
+    private void disable(SQLException e) {
+        failed = true;
+        System.err.println("File catalog disabled for this scan: " + e.getMessage());
+        try {
+            connection.rollback();
+        } catch (SQLException ignored) {
+            // Already reported the original error
+        }
+    }
+
+    private static Entry readEntry(ResultSet rows) throws SQLException {
+        long quick = rows.getLong(4);
+        Long quickHash = rows.wasNull() ? null : quick;
+        long full = rows.getLong(5);
+        Long fullHash = rows.wasNull() ? null : full;
+        return new Entry(rows.getString(1), rows.getLong(2), rows.getLong(3), quickHash, fullHash);
+    }
+
+    private static String escapeLike(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static class Batch {
+        final PreparedStatement statement;
+        int pending;
+
+        Batch(PreparedStatement statement) {
+            this.statement = statement;
+        }
+    }
+}
@@ -11,6 +11,7 @@ import javafx.scene.text.Font;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -23,7 +24,7 @@ public class FileIconService {
 
     public FileIconService() {
         this.executorService = Executors.newFixedThreadPool(4);
-        this.iconCache = new HashMap<>();
+        this.iconCache = new ConcurrentHashMap<>();
         this.colorMap = new HashMap<>();
 
         initializeColorMap();
@@ -110,6 +111,13 @@ public class FileIconService {
         return canvas.snapshot(null, null);
     }
 
+    /**
+     * Get the placeholder icon for a file type, falling back to the generic file icon
+     */
+    public Image getIcon(String fileType) {
+        return iconCache.getOrDefault(fileType, iconCache.get("file"));
+    }
+
     /**
      * Get thumbnail for file (asynchronous)
      */
@@ -0,0 +1,79 @@
+package com.duplicatefinder.services;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Streaming k-way merge over node index files. Only the current record of
+ * each index is held in memory, so any number of nodes and files can be joined.
+ */
+public class IndexMerger {
+
+    public interface GroupListener {
+        void onGroup(List<NodeIndexFile.Entry> duplicates) throws IOException;
+    }
+
+    private static class Head {
+        final NodeIndexFile.Reader reader;
+        NodeIndexFile.Entry entry;
+
+        Head(NodeIndexFile.Reader reader) {
+            this.reader = reader;
+        }
+    }
+
+    /**
+     * @param crossNodeOnly only report groups whose copies live on more than one node
+     * @return number of groups reported
+     */
+    public static long merge(List<Path> indexFiles, boolean crossNodeOnly, GroupListener listener) throws IOException {
+        PriorityQueue<Head> heap = new PriorityQueue<>(Math.max(1, indexFiles.size()),
+                (a, b) -> a.entry.compareKey(b.entry));
+        List<Head> heads = new ArrayList<>();
+        long groups = 0;
+
+        try {
+            for (Path file : indexFiles) {
+                Head head = new Head(new NodeIndexFile.Reader(file));
+                heads.add(head);
+                head.entry = head.reader.next();
+                if (head.entry != null) heap.add(head);
+            }
+
+            List<NodeIndexFile.Entry> current = new ArrayList<>();
+            while (!heap.isEmpty()) {
+                Head head = heap.poll();
+                NodeIndexFile.Entry entry = head.entry;
+
+                if (!current.isEmpty() && current.get(0).compareKey(entry) != 0) {
+                    if (report(current, crossNodeOnly, listener)) groups++;
+                    current = new ArrayList<>();
+                }
+                current.add(entry);
+
+                head.entry = head.reader.next();
+                if (head.entry != null) heap.add(head);
+            }
+            if (report(current, crossNodeOnly, listener)) groups++;
+        } finally {
+            for (Head head : heads) {
+                head.reader.close();
+            }
+        }
+        return groups;
+    }
+
+    private static boolean report(List<NodeIndexFile.Entry> group, boolean crossNodeOnly, GroupListener listener)
+            throws IOException {
+        if (group.size() < 2) return false;
+        if (crossNodeOnly) {
+            String firstNode = group.get(0).getNode();
+            if (group.stream().allMatch(e -> e.getNode().equals(firstNode))) return false;
+        }
+        listener.onGroup(group);
+        return true;
+    }
+}
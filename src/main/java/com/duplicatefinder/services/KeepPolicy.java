@@ -0,0 +1,353 @@
+package com.duplicatefinder.services;
+
+import com.duplicatefinder.models.ArchiveEntryFile;
+import com.duplicatefinder.models.DirectoryGroup;
+import com.duplicatefinder.models.DuplicateGroup;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+/**
+ * Decides which members of a duplicate group to keep before anything is
+ * deleted (or otherwise replaced).
+ *
+ * One copy is kept per group, chosen by the rules in order, each breaking
+ * the previous one's ties; walk order breaks the last tie, so a policy with
+ * no rules keeps the first file found. On top of that, nothing under a
+ * protected path is ever removed, and a protected copy is preferred as the
+ * kept one since it stays anyway. Archive entries are never removed and
+ * never chosen, because they cannot be deleted on their own. Groups that
+ * are not exact copies get no removals at all.
+ *
+ * Groups can overlap, as the files of a duplicate directory may be in file
+ * groups too, so whole result sets are decided through a {@link Plan}: the
+ * directory groups one after another, then the file groups in parallel,
+ * since they only read paths and modification times.
+ */
+public class KeepPolicy {
+
+    public enum Rule {
+        /** Keep the copy under the earliest listed preferred directory */
+        PREFERRED,
+        /** Keep the copy with the oldest modification time */
+        OLDEST,
+        /** Keep the copy with the newest modification time */
+        NEWEST,
+        /** Keep the copy with the shortest path */
+        SHORTEST_PATH;
+
+        /**
+         * @throws IllegalArgumentException for an unknown rule name
+         */
+        public static Rule parse(String name) {
+            String normalized = name.trim().toUpperCase(Locale.ROOT).replace('-', '_');
+            if (normalized.equals("SHORTEST")) return SHORTEST_PATH;
+            try {
+                return valueOf(normalized);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown keep rule: " + name
+                        + " (use preferred, oldest, newest or shortest-path)");
+            }
+        }
+    }
+
+    /** What to do with one group */
+    public static class Decision {
+        private final DuplicateGroup group;
+        private final List<File> keep;
+        private final List<File> remove;
+
+        Decision(DuplicateGroup group, List<File> keep, List<File> remove) {
+            this.group = group;
+            this.keep = keep;
+            this.remove = remove;
+        }
+
+        public DuplicateGroup getGroup() { return group; }
+        public List<File> getKeep() { return keep; }
+        public List<File> getRemove() { return remove; }
+
+        /** Bytes freed by removing, for exact copies */
+        public long getFreedBytes() { return group.getSize() * remove.size(); }
+    }
+
+    private final List<Rule> rules;
+    private final List<Path> preferredDirectories;
+    private final List<Path> protectedPaths;
+    private final boolean needsTimes;
+
+    public KeepPolicy(List<Rule> rules, List<Path> preferredDirectories, List<Path> protectedPaths) {
+        this.rules = List.copyOf(rules);
+        this.preferredDirectories = absolute(preferredDirectories);
+        this.protectedPaths = absolute(protectedPaths);
+        this.needsTimes = rules.contains(Rule.OLDEST) || rules.contains(Rule.NEWEST);
+    }
+
+    /**
+     * The behaviour before policies existed: keep the first file found.
+     */
+    public static KeepPolicy firstFound() {
+        return new KeepPolicy(List.of(), List.of(), List.of());
+    }
+
+    /**
+     * Build a policy from text as typed in the UI or on the command line.
+     *
+     * @param rules comma-separated rule names, e.g. "preferred, oldest"
+     * @throws IllegalArgumentException for an unknown rule name
+     */
+    public static KeepPolicy parse(String rules, List<String> preferredDirectories, List<String> protectedPaths) {
+        List<Rule> parsed = new ArrayList<>();
+        for (String name : rules.split(",")) {
+            if (!name.isBlank()) parsed.add(Rule.parse(name));
+        }
+        // Preferred directories only matter if the rule is there; put it first when it was left out
+        if (!preferredDirectories.isEmpty() && !parsed.contains(Rule.PREFERRED)) {
+            parsed.add(0, Rule.PREFERRED);
+        }
+        return new KeepPolicy(parsed, toPaths(preferredDirectories), toPaths(protectedPaths));
+    }
+
+    public List<Rule> getRules() { return rules; }
+
+    /**
+     * Decide every group of one result set. The result is in the order of the input.
+     */
+    public List<Decision> decideAll(List<DuplicateGroup> groups) {
+        return newPlan().decideAll(groups);
+    }
+
+    /**
+     * Start deciding a result set that is handed over in batches.
+     */
+    public Plan newPlan() {
+        return new Plan();
+    }
+
+    /**
+     * Decide one group on its own, as if nothing else were removed.
+     */
+    public Decision decide(DuplicateGroup group) {
+        return decide(group, group.getFiles(), null);
+    }
+
+    /**
+     * Decisions over one result set. Directory groups are decided first,
+     * largest trees first, one after another; each one drops the members
+     * inside a directory already removed, as they are gone, and keeps those
+     * inside (or holding) a directory already kept, so a kept tree stays
+     * whole. File groups are then decided in parallel against the same
+     * directories. So overlapping groups never remove every copy between them.
+     */
+    public class Plan {
+        private final Set<String> removedDirectories = new HashSet<>();
+        private final NavigableSet<String> keptDirectories = new TreeSet<>();
+        private boolean filesDecided;
+
+        private Plan() {
+        }
+
+        /**
+         * Decide a batch. A batch with directory groups cannot follow one with
+         * file groups, so batched result sets pass their directory groups first.
+         *
+         * @return the decisions, in the order of the input
+         * @throws IllegalStateException if a group would lose every copy
+         */
+        public List<Decision> decideAll(List<DuplicateGroup> groups) {
+            Decision[] decisions = new Decision[groups.size()];
+            List<Integer> directories = new ArrayList<>();
+            for (int i = 0; i < groups.size(); i++) {
+                if (groups.get(i) instanceof DirectoryGroup) directories.add(i);
+            }
+            if (!directories.isEmpty() && filesDecided) {
+                throw new IllegalStateException("Directory groups must be decided before file groups");
+            }
+
+            directories.sort(Comparator.comparingLong((Integer i) -> groups.get(i).getSize()).reversed());
+            for (int i : directories) {
+                Decision decision = decideAgainstDirectories(groups.get(i));
+                for (File removal : decision.getRemove()) {
+                    removedDirectories.add(removal.getAbsolutePath());
+                }
+                for (File kept : decision.getKeep()) {
+                    keptDirectories.add(kept.getAbsolutePath());
+                }
+                decisions[i] = decision;
+            }
+
+            if (directories.size() < groups.size()) filesDecided = true;
+            IntStream.range(0, groups.size()).parallel()
+                    .filter(i -> decisions[i] == null)
+                    .forEach(i -> decisions[i] = decideAgainstDirectories(groups.get(i)));
+
+            for (Decision decision : decisions) {
+                if (!decision.getRemove().isEmpty() && !hasSurvivor(decision)) {
+                    throw new IllegalStateException("Keep policy would remove every copy of "
+                            + decision.getGroup().getFiles());
+                }
+            }
+            return List.of(decisions);
+        }
+
+        private Decision decideAgainstDirectories(DuplicateGroup group) {
+            if (removedDirectories.isEmpty() && keptDirectories.isEmpty()) return decide(group);
+            List<File> members = new ArrayList<>(group.getFiles().size());
+            for (File file : group.getFiles()) {
+                if (!isInside(file.getAbsolutePath(), removedDirectories)) members.add(file);
+            }
+            return decide(group, members, this);
+        }
+
+        /** Inside a kept directory, or (for a directory) holding one */
+        private boolean touchesKept(String path) {
+            if (keptDirectories.isEmpty()) return false;
+            if (isInside(path, keptDirectories)) return true;
+            String below = keptDirectories.ceiling(path + File.separator);
+            return below != null && below.startsWith(path + File.separator);
+        }
+
+        private boolean hasSurvivor(Decision decision) {
+            for (File kept : decision.getKeep()) {
+                if (!(kept instanceof ArchiveEntryFile) && !isInside(kept.getAbsolutePath(), removedDirectories)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** The path itself or one of its parents is in the set */
+    private static boolean isInside(String path, Set<String> directories) {
+        if (directories.isEmpty()) return false;
+        for (String candidate = path; candidate != null; ) {
+            if (directories.contains(candidate)) return true;
+            int cut = candidate.lastIndexOf(File.separatorChar);
+            candidate = cut > 0 ? candidate.substring(0, cut) : null;
+        }
+        return false;
+    }
+
+    /**
+     * @param files the members still there, which may be fewer than the group's
+     * @param plan  the plan whose kept directories are kept too, or null
+     */
+    private Decision decide(DuplicateGroup group, List<File> files, Plan plan) {
+        if (!group.isExactCopy() || files.size() < 2) {
+            return new Decision(group, files, List.of());
+        }
+
+        int count = files.size();
+        String[] paths = new String[count];
+        boolean[] isProtected = new boolean[count];
+        long[] modified = needsTimes ? new long[count] : null;
+        int[] preference = new int[count];
+        for (int i = 0; i < count; i++) {
+            File file = files.get(i);
+            paths[i] = file.getAbsolutePath();
+            isProtected[i] = isProtected(paths[i]) || (plan != null && plan.touchesKept(paths[i]));
+            if (modified != null) modified[i] = file.lastModified();
+            preference[i] = preferenceOf(paths[i]);
+        }
+
+        int keeper = -1;
+        for (int i = 0; i < count; i++) {
+            if (files.get(i) instanceof ArchiveEntryFile) continue;
+            if (keeper < 0 || better(i, keeper, paths, isProtected, modified, preference)) {
+                keeper = i;
+            }
+        }
+        // Only archive entries: nothing can be removed
+        if (keeper < 0) return new Decision(group, files, List.of());
+
+        List<File> keep = new ArrayList<>(2);
+        List<File> remove = new ArrayList<>(count - 1);
+        for (int i = 0; i < count; i++) {
+            File file = files.get(i);
+            if (i == keeper || isProtected[i] || file instanceof ArchiveEntryFile) {
+                keep.add(file);
+            } else {
+                remove.add(file);
+            }
+        }
+        return new Decision(group, Collections.unmodifiableList(keep), Collections.unmodifiableList(remove));
+    }
+
+    /**
+     * @return true if candidate a should be kept rather than b
+     */
+    private boolean better(int a, int b, String[] paths, boolean[] isProtected, long[] modified, int[] preference) {
+        if (isProtected[a] != isProtected[b]) return isProtected[a];
+        for (Rule rule : rules) {
+            int c;
+            switch (rule) {
+                case PREFERRED:
+                    c = Integer.compare(preference[a], preference[b]);
+                    break;
+                case OLDEST:
+                    c = Long.compare(modified[a], modified[b]);
+                    break;
+                case NEWEST:
+                    c = Long.compare(modified[b], modified[a]);
+                    break;
+                case SHORTEST_PATH:
+                    c = Integer.compare(paths[a].length(), paths[b].length());
+                    break;
+                default:
+                    c = 0;
+            }
+            if (c != 0) return c < 0;
+        }
+        // Walk order
+        return a < b;
+    }
+
+    /**
+     * A path is protected if it is inside a protected path, or (for a
+     * duplicate directory) contains one, since removing it would remove that too.
+     */
+    private boolean isProtected(String path) {
+        if (protectedPaths.isEmpty()) return false;
+        Path candidate = Paths.get(path);
+        for (Path protectedPath : protectedPaths) {
+            if (candidate.startsWith(protectedPath) || protectedPath.startsWith(candidate)) return true;
+        }
+        return false;
+    }
+
+    private int preferenceOf(String path) {
+        if (preferredDirectories.isEmpty()) return 0;
+        Path candidate = Paths.get(path);
+        for (int i = 0; i < preferredDirectories.size(); i++) {
+            if (candidate.startsWith(preferredDirectories.get(i))) return i;
+        }
+        return preferredDirectories.size();
+    }
+
+    private static List<Path> absolute(List<Path> paths) {
+        List<Path> result = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            result.add(path.toAbsolutePath().normalize());
+        }
+        return result;
+    }
+
+    private static List<Path> toPaths(List<String> texts) {
+        List<Path> paths = new ArrayList<>();
+        for (String text : texts) {
+            if (!text.isBlank()) paths.add(Paths.get(text.trim()));
+        }
+        return paths;
+    }
+}
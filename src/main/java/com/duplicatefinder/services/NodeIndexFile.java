@@ -0,0 +1,143 @@
+package com.duplicatefinder.services;
+
+import com.duplicatefinder.utils.VarIntCodec;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compact, sorted (size, hash, path) index written by one scanning node.
+ *
+ * Layout: magic, format version, node name, then records sorted by size and
+ * hash. Each record is the size as a varint delta from the previous record,
+ * the 16-byte content digest, and the path stored as shared-prefix + suffix.
+ * A record with a zero-length marker byte ends the file.
+ */
+public class NodeIndexFile {
+    private static final int MAGIC = 0x44464958; // "DFIX"
+    private static final int VERSION = 1;
+    private static final int IO_BUFFER = 256 * 1024;
+
+    public static class Entry {
+        private final String node;
+        private final long size;
+        private final long hashHigh;
+        private final long hashLow;
+        private final String path;
+
+        public Entry(String node, long size, long hashHigh, long hashLow, String path) {
+            this.node = node;
+            this.size = size;
+            this.hashHigh = hashHigh;
+            this.hashLow = hashLow;
+            this.path = path;
+        }
+
+        public String getNode() { return node; }
+        public long getSize() { return size; }
+        public long getHashHigh() { return hashHigh; }
+        public long getHashLow() { return hashLow; }
+        public String getPath() { return path; }
+
+        public String getHashHex() {
+            return String.format("%016x%016x", hashHigh, hashLow);
+        }
+
+        /** Orders by size, then hash, which is the order records are stored in */
+        public int compareKey(Entry other) {
+            int c = Long.compare(size, other.size);
+            if (c != 0) return c;
+            c = Long.compare(hashHigh, other.hashHigh);
+            if (c != 0) return c;
+            return Long.compare(hashLow, other.hashLow);
+        }
+    }
+
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private long previousSize;
+        private long previousHigh;
+        private long previousLow;
+        private String previousPath = "";
+        private boolean first = true;
+
+        public Writer(Path file, String node) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), IO_BUFFER));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(node);
+        }
+
+        /**
+         * Records must be written in (size, hashHigh, hashLow) order.
+         */
+        public void write(long size, long hashHigh, long hashLow, String path) throws IOException {
+            if (!first && (size < previousSize || (size == previousSize
+                    && (hashHigh < previousHigh || (hashHigh == previousHigh && hashLow < previousLow))))) {
+                throw new IllegalStateException("Index records must be written in sorted order");
+            }
+            out.writeByte(1);
+            VarIntCodec.writeVarLong(out, size - previousSize);
+            out.writeLong(hashHigh);
+            out.writeLong(hashLow);
+            VarIntCodec.writePrefixed(out, previousPath, path);
+            previousSize = size;
+            previousHigh = hashHigh;
+            previousLow = hashLow;
+            previousPath = path;
+            first = false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.writeByte(0);
+            out.close();
+        }
+    }
+
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final String node;
+        private long size;
+        private String path = "";
+        private boolean finished;
+
+        public Reader(Path file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), IO_BUFFER));
+            if (in.readInt() != MAGIC) {
+                in.close();
+                throw new IOException("Not a node index file: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                in.close();
+                throw new IOException("Unsupported index version " + version + ": " + file);
+            }
+            node = in.readUTF();
+        }
+
+        public String getNode() { return node; }
+
+        /**
+         * @return the next record, or null at the end of the index
+         */
+        public Entry next() throws IOException {
+            if (finished) return null;
+            if (in.readByte() == 0) {
+                finished = true;
+                return null;
+            }
+            size += VarIntCodec.readVarLong(in);
+            long high = in.readLong();
+            long low = in.readLong();
+            path = VarIntCodec.readPrefixed(in, path);
+            return new Entry(node, size, high, low, path);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.duplicatefinder.services;
+
+import com.duplicatefinder.utils.ExternalLongSorter;
+import com.duplicatefinder.utils.PathFilter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Scans the directories local to one node and writes a sorted
+ * {@link NodeIndexFile}, so duplicates across file servers can be found by
+ * merging small index files instead of moving file contents between machines.
+ *
+ * Every file gets a full SHA-256 digest (first 16 bytes kept): a file that is
+ * unique on this node may still have a copy on another node.
+ */
+public class NodeIndexer {
+    private static final int READ_BUFFER = 256 * 1024;
+    private static final int RECORDS_IN_MEMORY = 1 << 20;
+    private static final long PROGRESS_EVERY = 10_000;
+
+    private final String nodeName;
+    private final List<Path> roots;
+    private final Path tempDirectory;
+    private PathFilter pathFilter = PathFilter.defaults();
+    private ScanThrottle throttle = new ScanThrottle();
+    private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[READ_BUFFER]);
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(NodeIndexer::newDigest);
+
+    public NodeIndexer(String nodeName, List<Path> roots, Path tempDirectory) {
+        this.nodeName = nodeName;
+        this.roots = roots;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Replace the default directory exclusions with configured rules.
+     */
+    public void setPathFilter(PathFilter pathFilter) {
+        this.pathFilter = pathFilter;
+    }
+
+    /**
+     * Limit read rate, file rate and hashing threads; may be adjusted while running.
+     */
+    public void setThrottle(ScanThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * @param progress receives human-readable progress lines
+     * @return number of records written
+     */
+    public long writeIndex(Path output, Consumer<String> progress) throws IOException {
+        List<String> paths = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        for (Path root : roots) {
+            collectFiles(root, paths, sizes);
+        }
+        progress.accept(String.format("%s: found %d files", nodeName, paths.size()));
+
+        AtomicLong hashed = new AtomicLong();
+        try (ExternalLongSorter sorter = new ExternalLongSorter(4, 3, RECORDS_IN_MEMORY, tempDirectory)) {
+            IntStream.range(0, paths.size()).parallel().forEach(id -> {
+                if (!throttle.acquireThread()) return;
+                try {
+                    long[] digest = hashFile(Paths.get(paths.get(id)));
+                    sorter.add(sizes.get(id), digest[0], digest[1], id);
+                } catch (IOException e) {
+                    // File vanished or is unreadable, leave it out of the index
+                } finally {
+                    throttle.releaseThread();
+                }
+                long done = hashed.incrementAndGet();
+                if (done % PROGRESS_EVERY == 0) {
+                    progress.accept(String.format("%s: hashed %d/%d files", nodeName, done, paths.size()));
+                }
+            });
+
+            long written = 0;
+            long[] record = new long[4];
+            try (NodeIndexFile.Writer writer = new NodeIndexFile.Writer(output, nodeName);
+                 ExternalLongSorter.MergeIterator it = sorter.sortedIterator()) {
+                while (it.next(record)) {
+                    writer.write(record[0], record[1], record[2], paths.get((int) record[3]));
+                    written++;
+                }
+            }
+            progress.accept(String.format("%s: wrote %d records to %s", nodeName, written, output));
+            return written;
+        }
+    }
+
+    private void collectFiles(Path root, List<String> paths, List<Long> sizes) throws IOException {
+        if (!Files.exists(root)) return;
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                throttle.acquireFile();
+                // Same rule as the local scan: 0 and 1 byte files are never reported
+                if (attrs.isRegularFile() && attrs.size() > 1 && pathFilter.acceptFile(file, attrs)) {
+                    paths.add(file.toAbsolutePath().toString());
+                    sizes.add(attrs.size());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!pathFilter.acceptDirectory(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private long[] hashFile(Path file) throws IOException {
+        MessageDigest digest = digests.get();
+        digest.reset();
+        byte[] buffer = buffers.get();
+        throttle.acquireFile();
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                throttle.acquireBytes(read);
+            }
+        }
+        ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+        return new long[]{hash.getLong(0), hash.getLong(8)};
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.duplicatefinder.services;
+
+import java.io.IOException;
+import java.nio.channels.Channel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The CRC32 of a file's first bytes, kept from the quick hash so the full
+ * hash carries on from there instead of reading them again. While the
+ * scan's handle budget allows, the file's channel also stays open,
+ * positioned just after those bytes, so the file is opened only once.
+ *
+ * Only the CRC value is kept, not a CRC object: the full hash resumes its
+ * own reused one from it.
+ */
+public class PartialHash {
+
+    private final long crc;
+    private final long position;
+    private Channel channel;
+
+    PartialHash(long crc, long position) {
+        this.crc = crc;
+        this.position = position;
+    }
+
+    /** The CRC over the bytes before {@link #getPosition()}, to carry on from */
+    public long getCrc() { return crc; }
+
+    /** Where the full hash continues reading */
+    public long getPosition() { return position; }
+
+    /**
+     * Channels left open between the quick and the full hash, up to a limit
+     * so a scan with many candidates does not run out of file descriptors.
+     * Partial hashes that come after the limit is reached keep only their
+     * CRC, and the full hash reopens the file at their position.
+     */
+    public static class OpenHandles implements AutoCloseable {
+        private final int limit;
+        private final Set<PartialHash> open = new HashSet<>();
+        private boolean closed;
+
+        public OpenHandles(int limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Keep a file's hash state, and its channel if the budget allows;
+         * otherwise the channel is closed here.
+         */
+        public PartialHash keep(long crc, long position, Channel channel) {
+            PartialHash partial = new PartialHash(crc, position);
+            synchronized (this) {
+                if (!closed && open.size() < limit) {
+                    partial.channel = channel;
+                    open.add(partial);
+                    return partial;
+                }
+            }
+            closeQuietly(channel);
+            return partial;
+        }
+
+        /**
+         * @return the channel kept for this partial hash, now owned by the caller, or null
+         */
+        public synchronized Channel take(PartialHash partial) {
+            Channel channel = partial.channel;
+            if (channel != null) {
+                partial.channel = null;
+                open.remove(partial);
+            }
+            return channel;
+        }
+
+        /**
+         * Close the channel of a file that will not be read any further.
+         */
+        public void discard(PartialHash partial) {
+            closeQuietly(take(partial));
+        }
+
+        /**
+         * Close every kept channel; later ones are closed straight away. Safe from any thread.
+         */
+        @Override
+        public void close() {
+            List<PartialHash> toClose;
+            synchronized (this) {
+                closed = true;
+                toClose = new ArrayList<>(open);
+                open.clear();
+            }
+            for (PartialHash partial : toClose) {
+                closeQuietly(partial.channel);
+                partial.channel = null;
+            }
+        }
+
+        private static void closeQuietly(Channel channel) {
+            if (channel == null) return;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Only read from, nothing to lose
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.duplicatefinder.services;
+
+import com.duplicatefinder.models.DirectoryGroup;
+import com.duplicatefinder.models.DuplicateGroup;
+import com.duplicatefinder.models.SharedContentGroup;
+import com.duplicatefinder.models.SimilarImageGroup;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes scan results as text for other tools: NDJSON with one group per
+ * line, or CSV with one file per row. Groups are streamed, so exporting a
+ * saved result does not load it into memory.
+ */
+public class ResultExporter {
+
+    public enum Format {
+        NDJSON(".ndjson"), CSV(".csv"), BINARY(ScanResultFile.EXTENSION);
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() { return extension; }
+
+        /**
+         * @return the format for a file name's extension, binary if it is not recognised
+         */
+        public static Format forFile(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            for (Format format : values()) {
+                if (name.endsWith(format.extension)) return format;
+            }
+            if (name.endsWith(".json") || name.endsWith(".jsonl")) return NDJSON;
+            return BINARY;
+        }
+    }
+
+    /**
+     * Save groups in the format given by the file's extension.
+     */
+    public static void export(Path file, Iterable<DuplicateGroup> groups) throws IOException {
+        Format format = Format.forFile(file);
+        if (format == Format.BINARY) {
+            try (ScanResultFile.Writer writer = new ScanResultFile.Writer(file)) {
+                for (DuplicateGroup group : groups) {
+                    writer.write(group);
+                }
+            }
+            return;
+        }
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            write(format, groups, out);
+        }
+    }
+
+    public static void write(Format format, Iterable<DuplicateGroup> groups, Writer out) throws IOException {
+        if (format == Format.BINARY) throw new IllegalArgumentException("Binary results need a file");
+        Writer buffered = out instanceof BufferedWriter ? out : new BufferedWriter(out);
+        if (format == Format.CSV) {
+            buffered.write("group,kind,size,hash,wasted,path\n");
+        }
+        int index = 0;
+        for (DuplicateGroup group : groups) {
+            if (format == Format.CSV) {
+                writeCsv(index, group, buffered);
+            } else {
+                writeJson(index, group, buffered);
+            }
+            index++;
+        }
+        buffered.flush();
+    }
+
+    private static void writeJson(int index, DuplicateGroup group, Writer out) throws IOException {
+        out.write("{\"group\":");
+        out.write(Integer.toString(index));
+        out.write(",\"kind\":\"");
+        out.write(kindOf(group));
+        out.write("\",\"size\":");
+        out.write(Long.toString(group.getSize()));
+        out.write(",\"hash\":");
+        writeJsonString(group.getFileHash(), out);
+        out.write(",\"wasted\":");
+        out.write(Long.toString(group.getWastedSize()));
+        out.write(",\"exact\":");
+        out.write(Boolean.toString(group.isExactCopy()));
+        out.write(",\"files\":[");
+        boolean first = true;
+        for (File file : group.getFiles()) {
+            if (!first) out.write(',');
+            writeJsonString(file.getPath(), out);
+            first = false;
+        }
+        out.write("]}\n");
+    }
+
+    private static void writeCsv(int index, DuplicateGroup group, Writer out) throws IOException {
+        String prefix = index + "," + kindOf(group) + "," + group.getSize() + ","
+                + csvField(group.getFileHash()) + "," + group.getWastedSize() + ",";
+        for (File file : group.getFiles()) {
+            out.write(prefix);
+            out.write(csvField(file.getPath()));
+            out.write('\n');
+        }
+    }
+
+    private static String kindOf(DuplicateGroup group) {
+        if (group instanceof DirectoryGroup) return "directory";
+        if (group instanceof SimilarImageGroup) return "similar";
+        if (group instanceof SharedContentGroup) return "shared";
+        return "exact";
+    }
+
+    private static void writeJsonString(String value, Writer out) throws IOException {
+        if (value == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    private static String csvField(String value) {
+        if (value == null) return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,180 @@
+package com.duplicatefinder.services;
+
+import com.duplicatefinder.utils.FormatUtils;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Counts what a scan has discovered and hashed, and publishes a message,
+ * a progress fraction and an ETA at a fixed rate from its own thread.
+ *
+ * Workers only bump counters, which costs no more than an uncontended add.
+ * While hashing, the total is an upper bound (quick bytes plus every
+ * candidate's full size) that shrinks as files are ruled out, so the
+ * fraction only moves forward. Throughput is smoothed so the ETA does not
+ * jump around with each file. Time spent paused is left out of it, so the
+ * ETA carries on where it was after a resume.
+ */
+public class ScanProgress implements AutoCloseable {
+
+    public interface Listener {
+        /**
+         * @param fraction 0..1, or -1 while the total is unknown
+         */
+        void onProgress(String message, double fraction);
+    }
+
+    private enum Phase { IDLE, WALKING, HASHING }
+
+    // Weight of the latest interval in the smoothed rate
+    private static final double SMOOTHING = 0.2;
+
+    private final Listener listener;
+    private final ScheduledExecutorService publisher;
+
+    private final LongAdder filesDiscovered = new LongAdder();
+    private final LongAdder bytesDiscovered = new LongAdder();
+    private final LongAdder filesToCheck = new LongAdder();
+    private final LongAdder filesChecked = new LongAdder();
+    private final LongAdder bytesQueued = new LongAdder();
+    private final LongAdder bytesHashed = new LongAdder();
+
+    private volatile Phase phase = Phase.IDLE;
+    private long lastCount;
+    private long lastTime;
+    private double smoothedRate = -1;
+    private BooleanSupplier paused = () -> false;
+    private String lastMessage = "";
+    private double lastFraction = -1;
+
+    public ScanProgress(Listener listener, long periodMillis) {
+        this.listener = listener;
+        this.publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "scan-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        publisher.scheduleAtFixedRate(this::publish, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param paused whether the scan is paused; while it is, the last message is repeated as paused
+     */
+    public void setPaused(BooleanSupplier paused) {
+        this.paused = paused;
+    }
+
+    public void startWalking() {
+        switchPhase(Phase.WALKING);
+    }
+
+    public void startHashing() {
+        switchPhase(Phase.HASHING);
+    }
+
+    /**
+     * Stop publishing, e.g. for a phase that reports its own messages.
+     */
+    public void pause() {
+        switchPhase(Phase.IDLE);
+    }
+
+    public void fileDiscovered(long size) {
+        filesDiscovered.increment();
+        bytesDiscovered.add(size);
+    }
+
+    /**
+     * Files about to be hashed, and the most bytes that could be read for them.
+     */
+    public void queue(long files, long bytes) {
+        filesToCheck.add(files);
+        bytesQueued.add(bytes);
+    }
+
+    /**
+     * Bytes that no longer need reading, e.g. the full hash of a file ruled out by its quick hash.
+     */
+    public void unqueue(long bytes) {
+        bytesQueued.add(-bytes);
+    }
+
+    public void hashed(long bytes) {
+        bytesHashed.add(bytes);
+    }
+
+    public void filesChecked(long files) {
+        filesChecked.add(files);
+    }
+
+    public long getFilesDiscovered() {
+        return filesDiscovered.sum();
+    }
+
+    private synchronized void switchPhase(Phase next) {
+        phase = next;
+        lastTime = System.nanoTime();
+        lastCount = next == Phase.WALKING ? filesDiscovered.sum() : bytesHashed.sum();
+        smoothedRate = -1;
+    }
+
+    private synchronized void publish() {
+        Phase current = phase;
+        if (current == Phase.IDLE) return;
+
+        long now = System.nanoTime();
+        long count = current == Phase.WALKING ? filesDiscovered.sum() : bytesHashed.sum();
+        if (paused.getAsBoolean()) {
+            lastCount = count;
+            lastTime = now;
+            listener.onProgress(lastMessage.isEmpty() ? "Paused" : "Paused - " + lastMessage, lastFraction);
+            return;
+        }
+        double seconds = (now - lastTime) / 1e9;
+        if (seconds > 0) {
+            double rate = (count - lastCount) / seconds;
+            smoothedRate = smoothedRate < 0 ? rate : SMOOTHING * rate + (1 - SMOOTHING) * smoothedRate;
+        }
+        lastCount = count;
+        lastTime = now;
+
+        if (current == Phase.WALKING) {
+            report(String.format("Scanning: %,d files, %s (%,.0f files/s)",
+                    count, FormatUtils.formatFileSize(bytesDiscovered.sum()), Math.max(0, smoothedRate)), -1);
+            return;
+        }
+
+        long total = Math.max(bytesQueued.sum(), count);
+        double fraction = total == 0 ? 1 : (double) count / total;
+        StringBuilder message = new StringBuilder(String.format("Hashing: %s of %s (%s/s), %,d of %,d files",
+                FormatUtils.formatFileSize(count), FormatUtils.formatFileSize(total),
+                FormatUtils.formatFileSize((long) Math.max(0, smoothedRate)),
+                filesChecked.sum(), filesToCheck.sum()));
+        if (smoothedRate > 0 && total > count) {
+            message.append(", about ").append(formatDuration((long) ((total - count) / smoothedRate))).append(" left");
+        }
+        report(message.toString(), fraction);
+    }
+
+    private void report(String message, double fraction) {
+        lastMessage = message;
+        lastFraction = fraction;
+        listener.onProgress(message, fraction);
+    }
+
+    private static String formatDuration(long seconds) {
+        if (seconds < 60) return seconds + " s";
+        if (seconds < 3600) return String.format("%d min %02d s", seconds / 60, seconds % 60);
+        return String.format("%d h %02d min", seconds / 3600, (seconds % 3600) / 60);
+    }
+
+    @Override
+    public void close() {
+        phase = Phase.IDLE;
+        publisher.shutdownNow();
+    }
+}
@@ -0,0 +1,385 @@
+package com.duplicatefinder.services;
+
+import com.duplicatefinder.models.ArchiveEntryFile;
+import com.duplicatefinder.models.DirectoryGroup;
+import com.duplicatefinder.models.DuplicateGroup;
+import com.duplicatefinder.models.SharedContentGroup;
+import com.duplicatefinder.models.SimilarImageGroup;
+import com.duplicatefinder.utils.VarIntCodec;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Saved scan results, reopened without rescanning.
+ *
+ * Layout: magic and format version, then one record per group: kind, size
+ * as a varint, the digest as fixed-width bytes (hex hashes) or text, the
+ * kind's extra fields, and the member paths stored as shared-prefix +
+ * suffix against the previous member of the same group. After the groups
+ * comes an index of group offsets and a fixed-size trailer with the counts,
+ * so the reader finds any group without decoding the ones before it.
+ *
+ * The reader memory-maps the file and decodes a group only when it is asked
+ * for, so opening a result with millions of files costs only the index.
+ * Closing it drops the mappings; Java cannot unmap on demand, so they go
+ * when collected, and groups already decoded stay usable.
+ */
+public class ScanResultFile {
+    private static final int MAGIC = 0x44465253; // "DFRS"
+    private static final int VERSION = 1;
+    private static final int IO_BUFFER = 256 * 1024;
+    // Trailer: index offset, group count, file count, wasted bytes, magic
+    private static final int TRAILER_BYTES = 4 * 8 + 4;
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    private static final int KIND_EXACT = 0;
+    private static final int KIND_DIRECTORY = 1;
+    private static final int KIND_SIMILAR = 2;
+    private static final int KIND_SHARED = 3;
+
+    private static final int HASH_NONE = 0;
+    private static final int HASH_HEX = 1;
+    private static final int HASH_TEXT = 2;
+
+    private static final int FILE_PLAIN = 0;
+    private static final int FILE_ARCHIVE_ENTRY = 1;
+
+    /** Default extension for saved results */
+    public static final String EXTENSION = ".dfr";
+
+    public static class Writer implements Closeable {
+        private final CountingStream counter;
+        private final DataOutputStream out;
+        private long[] offsets = new long[1024];
+        private int groupCount;
+        private long fileCount;
+        private long wastedBytes;
+
+        public Writer(Path file) throws IOException {
+            counter = new CountingStream(new BufferedOutputStream(Files.newOutputStream(file), IO_BUFFER));
+            out = new DataOutputStream(counter);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        public void write(DuplicateGroup group) throws IOException {
+            if (groupCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, groupCount * 2);
+            }
+            offsets[groupCount++] = counter.count;
+
+            if (group instanceof DirectoryGroup directoryGroup) {
+                out.writeByte(KIND_DIRECTORY);
+                writeHeader(group);
+                VarIntCodec.writeVarLong(out, directoryGroup.getFilesPerDirectory());
+            } else if (group instanceof SimilarImageGroup similarGroup) {
+                out.writeByte(KIND_SIMILAR);
+                writeHeader(group);
+                VarIntCodec.writeVarLong(out, similarGroup.getMaxDistance());
+                VarIntCodec.writeVarLong(out, similarGroup.getTotalSize());
+            } else if (group instanceof SharedContentGroup sharedGroup) {
+                out.writeByte(KIND_SHARED);
+                writeHeader(group);
+                VarIntCodec.writeVarLong(out, sharedGroup.getTotalSize());
+                out.writeBoolean(sharedGroup.isDirectoryPair());
+            } else {
+                out.writeByte(KIND_EXACT);
+                writeHeader(group);
+            }
+
+            List<File> files = group.getFiles();
+            VarIntCodec.writeVarLong(out, files.size());
+            String previous = "";
+            for (File file : files) {
+                if (file instanceof ArchiveEntryFile entry) {
+                    out.writeByte(FILE_ARCHIVE_ENTRY);
+                    String archive = entry.getArchive().getPath();
+                    VarIntCodec.writePrefixed(out, previous, archive);
+                    out.writeUTF(entry.getEntryName());
+                    VarIntCodec.writeVarLong(out, entry.length());
+                    out.writeLong(entry.lastModified());
+                    previous = archive;
+                } else {
+                    out.writeByte(FILE_PLAIN);
+                    VarIntCodec.writePrefixed(out, previous, file.getPath());
+                    previous = file.getPath();
+                }
+            }
+            fileCount += files.size();
+            wastedBytes += group.getWastedSize();
+        }
+
+        private void writeHeader(DuplicateGroup group) throws IOException {
+            VarIntCodec.writeVarLong(out, group.getSize());
+            String hash = group.getFileHash();
+            if (hash == null) {
+                out.writeByte(HASH_NONE);
+            } else if (isHex(hash)) {
+                out.writeByte(HASH_HEX);
+                out.writeByte(hash.length());
+                for (int i = 0; i < hash.length(); i += 2) {
+                    int high = Character.digit(hash.charAt(i), 16);
+                    int low = i + 1 < hash.length() ? Character.digit(hash.charAt(i + 1), 16) : 0;
+                    out.writeByte(high << 4 | low);
+                }
+            } else {
+                out.writeByte(HASH_TEXT);
+                out.writeUTF(hash);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            long indexOffset = counter.count;
+            for (int i = 0; i < groupCount; i++) {
+                out.writeLong(offsets[i]);
+            }
+            out.writeLong(indexOffset);
+            out.writeLong(groupCount);
+            out.writeLong(fileCount);
+            out.writeLong(wastedBytes);
+            out.writeInt(MAGIC);
+            out.close();
+        }
+    }
+
+    /**
+     * Counts bytes written; DataOutputStream's own counter stops at 2 GB.
+     */
+    private static class CountingStream extends FilterOutputStream {
+        long count;
+
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            count += length;
+        }
+    }
+
+    /**
+     * Lowercase hex short enough for the one-byte length, as the scans produce.
+     */
+    private static boolean isHex(String hash) {
+        if (hash.isEmpty() || hash.length() > 255) return false;
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+
+    public static class Reader implements Closeable {
+        private final Path file;
+        // Null once closed
+        private volatile MappedByteBuffer[] segments;
+        private final long indexOffset;
+        private final int groupCount;
+        private final long fileCount;
+        private final long wastedBytes;
+
+        public Reader(Path file) throws IOException {
+            this.file = file;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long length = channel.size();
+                if (length < 8 + TRAILER_BYTES) throw new IOException("Not a scan result file: " + file);
+                // Mappings stay valid after the channel is closed
+                MappedByteBuffer[] mapped = new MappedByteBuffer[(int) ((length + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+                for (int i = 0; i < mapped.length; i++) {
+                    long start = i * SEGMENT_BYTES;
+                    mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_BYTES, length - start));
+                }
+                segments = mapped;
+
+                DataInputStream in = open(0);
+                if (in.readInt() != MAGIC) throw new IOException("Not a scan result file: " + file);
+                int version = in.readInt();
+                if (version != VERSION) throw new IOException("Unsupported result version " + version + ": " + file);
+
+                DataInputStream trailer = open(length - TRAILER_BYTES);
+                indexOffset = trailer.readLong();
+                long groups = trailer.readLong();
+                fileCount = trailer.readLong();
+                wastedBytes = trailer.readLong();
+                if (trailer.readInt() != MAGIC || indexOffset + groups * 8 != length - TRAILER_BYTES) {
+                    throw new IOException("Truncated scan result file: " + file);
+                }
+                groupCount = (int) groups;
+            }
+        }
+
+        public Path getFile() { return file; }
+        public int getGroupCount() { return groupCount; }
+        public long getFileCount() { return fileCount; }
+        public long getWastedBytes() { return wastedBytes; }
+
+        /**
+         * Decode one group. Each call builds a new group object.
+         */
+        public DuplicateGroup readGroup(int index) throws IOException {
+            if (index < 0 || index >= groupCount) throw new IndexOutOfBoundsException(index);
+            long offset = open(indexOffset + index * 8L).readLong();
+            DataInputStream in = open(offset);
+
+            int kind = in.readByte();
+            long size = VarIntCodec.readVarLong(in);
+            String hash = readHash(in);
+            long extraA = 0;
+            long extraB = 0;
+            boolean directoryPair = false;
+            switch (kind) {
+                case KIND_DIRECTORY:
+                    extraA = VarIntCodec.readVarLong(in);
+                    break;
+                case KIND_SIMILAR:
+                    extraA = VarIntCodec.readVarLong(in);
+                    extraB = VarIntCodec.readVarLong(in);
+                    break;
+                case KIND_SHARED:
+                    extraA = VarIntCodec.readVarLong(in);
+                    directoryPair = in.readBoolean();
+                    break;
+                case KIND_EXACT:
+                    break;
+                default:
+                    throw new IOException("Unknown group kind " + kind + " in " + file);
+            }
+
+            int count = (int) VarIntCodec.readVarLong(in);
+            List<File> files = new ArrayList<>(count);
+            String previous = "";
+            for (int i = 0; i < count; i++) {
+                int type = in.readByte();
+                previous = VarIntCodec.readPrefixed(in, previous);
+                if (type == FILE_ARCHIVE_ENTRY) {
+                    String entryName = in.readUTF();
+                    long entrySize = VarIntCodec.readVarLong(in);
+                    long entryModified = in.readLong();
+                    files.add(new ArchiveEntryFile(new File(previous), entryName, entrySize, entryModified));
+                } else {
+                    files.add(new File(previous));
+                }
+            }
+
+            switch (kind) {
+                case KIND_DIRECTORY:
+                    return new DirectoryGroup(size, hash, files, (int) extraA);
+                case KIND_SIMILAR:
+                    return new SimilarImageGroup(hash, files, (int) extraA, size, extraB);
+                case KIND_SHARED:
+                    return new SharedContentGroup(files, size, extraA, directoryPair);
+                default:
+                    return new DuplicateGroup(size, hash, files);
+            }
+        }
+
+        /**
+         * All groups as a read-only list that decodes each group when it is
+         * accessed, e.g. as table rows scroll into view.
+         */
+        public List<DuplicateGroup> groups() {
+            return new GroupList();
+        }
+
+        private String readHash(DataInputStream in) throws IOException {
+            int type = in.readByte();
+            if (type == HASH_NONE) return null;
+            if (type == HASH_TEXT) return in.readUTF();
+            int length = in.readUnsignedByte();
+            char[] hex = new char[length];
+            for (int i = 0; i < length; i += 2) {
+                int b = in.readUnsignedByte();
+                hex[i] = Character.forDigit(b >> 4, 16);
+                if (i + 1 < length) hex[i + 1] = Character.forDigit(b & 0xF, 16);
+            }
+            return new String(hex);
+        }
+
+        private DataInputStream open(long offset) {
+            return new DataInputStream(new SegmentStream(offset));
+        }
+
+        /**
+         * Drop the mapped segments. Reading groups afterwards fails with an IOException.
+         */
+        @Override
+        public void close() {
+            segments = null;
+        }
+
+        private class GroupList extends AbstractList<DuplicateGroup> implements RandomAccess {
+            @Override
+            public DuplicateGroup get(int index) {
+                try {
+                    return readGroup(index);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public int size() {
+                return groupCount;
+            }
+        }
+
+        /**
+         * Reads across the mapped segments, so a record may straddle two of them.
+         */
+        private class SegmentStream extends InputStream {
+            private long position;
+
+            SegmentStream(long position) {
+                this.position = position;
+            }
+
+            @Override
+            public int read() throws IOException {
+                MappedByteBuffer[] segments = segments();
+                int segment = (int) (position / SEGMENT_BYTES);
+                if (segment >= segments.length) return -1;
+                int b = segments[segment].get((int) (position % SEGMENT_BYTES)) & 0xFF;
+                position++;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                MappedByteBuffer[] segments = segments();
+                int segment = (int) (position / SEGMENT_BYTES);
+                if (segment >= segments.length) return -1;
+                MappedByteBuffer mapped = segments[segment];
+                int start = (int) (position % SEGMENT_BYTES);
+                int count = Math.min(length, mapped.limit() - start);
+                mapped.get(start, buffer, offset, count);
+                position += count;
+                return count;
+            }
+
+            private MappedByteBuffer[] segments() throws IOException {
+                MappedByteBuffer[] mapped = segments;
+                if (mapped == null) throw new IOException("Scan result file is closed: " + file);
+                return mapped;
+            }
+        }
+    }
+}
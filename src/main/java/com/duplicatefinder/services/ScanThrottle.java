@@ -0,0 +1,187 @@
+package com.duplicatefinder.services;
+
+import com.duplicatefinder.utils.FormatUtils;
+
+/**
+ * Read rate, file rate and thread limits for a scan, so it can run next to
+ * other workloads. Every limit is 0 for "unlimited" and may be changed while
+ * a scan is running; waiting threads pick up the new limit within a few
+ * milliseconds.
+ *
+ * Rates are paced rather than counted per second: each caller reserves its
+ * share of the budget and sleeps until that share is due, with up to
+ * 100 ms of unused budget carried over. The waits happen on
+ * the scanning threads themselves, so a throttled scan also holds fewer
+ * reads in flight.
+ *
+ * Pausing holds every scanning thread at its next file, read or thread
+ * slot, with all its state intact, until the scan is resumed.
+ */
+public class ScanThrottle {
+
+    private static final long BURST_MILLIS = 100;
+    private static final long MAX_SLEEP_MILLIS = 50;
+
+    private final Rate bytes = new Rate();
+    private final Rate files = new Rate();
+    private int maxThreads;
+    private int activeThreads;
+    // Read without the lock on every acquire, so an unpaused scan never contends for it
+    private volatile boolean paused;
+
+    /** Bytes read per second while hashing */
+    public long getMaxBytesPerSecond() { return bytes.perSecond; }
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        bytes.setLimit(maxBytesPerSecond);
+    }
+
+    /** Files visited per second by the walk, and opened per second while hashing */
+    public long getMaxFilesPerSecond() { return files.perSecond; }
+    public void setMaxFilesPerSecond(long maxFilesPerSecond) {
+        files.setLimit(maxFilesPerSecond);
+    }
+
+    /** Threads hashing (or reading directories, on virtual threads) at once */
+    public synchronized int getMaxThreads() { return maxThreads; }
+    public synchronized void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+        notifyAll();
+    }
+
+    /**
+     * Hold scanning threads at their next file or read until {@link #resume()}.
+     */
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    public boolean isPaused() { return paused; }
+
+    public boolean isLimited() {
+        return bytes.perSecond > 0 || files.perSecond > 0 || getMaxThreads() > 0;
+    }
+
+    /**
+     * Wait until reading this many bytes fits the rate.
+     *
+     * @return false if interrupted, with the interrupt flag set again
+     */
+    public boolean acquireBytes(long count) {
+        return awaitResumed() && bytes.acquire(count);
+    }
+
+    /**
+     * @return false if interrupted, with the interrupt flag set again
+     */
+    public boolean acquireFile() {
+        return awaitResumed() && files.acquire(1);
+    }
+
+    /**
+     * Wait for one of the thread slots. Every successful call must be paired
+     * with {@link #releaseThread()}.
+     *
+     * @return false if interrupted, in which case no slot is held
+     */
+    public synchronized boolean acquireThread() {
+        try {
+            while (paused || (maxThreads > 0 && activeThreads >= maxThreads)) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        activeThreads++;
+        return true;
+    }
+
+    public synchronized void releaseThread() {
+        activeThreads--;
+        notifyAll();
+    }
+
+    /**
+     * @return false if interrupted while paused, with the interrupt flag set again
+     */
+    private boolean awaitResumed() {
+        if (!paused) return true;
+        try {
+            synchronized (this) {
+                while (paused) {
+                    wait();
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return e.g. "20 MB/s, 500 files/s, 2 threads", or "unlimited"
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        if (bytes.perSecond > 0) text.append(FormatUtils.formatFileSize(bytes.perSecond)).append("/s");
+        if (files.perSecond > 0) text.append(text.length() > 0 ? ", " : "").append(files.perSecond).append(" files/s");
+        int threads = getMaxThreads();
+        if (threads > 0) text.append(text.length() > 0 ? ", " : "").append(threads).append(" threads");
+        return text.length() > 0 ? text.toString() : "unlimited";
+    }
+
+    /**
+     * One paced budget. nextFree is when the budget reserved so far has been
+     * paid off; a caller that finds it in the future sleeps until then.
+     */
+    private static class Rate {
+        volatile long perSecond;
+        private long nextFree = System.nanoTime();
+        private int generation;
+
+        synchronized void setLimit(long perSecond) {
+            this.perSecond = perSecond;
+            // Waits reserved at the old rate are dropped, so a raised limit applies at once
+            nextFree = System.nanoTime();
+            generation++;
+        }
+
+        boolean acquire(long amount) {
+            if (perSecond <= 0 || amount <= 0) return true;
+
+            long due;
+            int reservedIn;
+            synchronized (this) {
+                long limit = perSecond;
+                if (limit <= 0) return true;
+                long now = System.nanoTime();
+                nextFree = Math.max(nextFree, now - BURST_MILLIS * 1_000_000);
+                due = nextFree;
+                nextFree += (long) (amount * 1e9 / limit);
+                reservedIn = generation;
+            }
+
+            // Sleep in short steps so a changed limit or an interrupt is noticed promptly
+            try {
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    synchronized (this) {
+                        if (generation != reservedIn) return true;
+                    }
+                    Thread.sleep(Math.min(MAX_SLEEP_MILLIS, Math.max(1, wait / 1_000_000)));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return true;
+        }
+    }
+}
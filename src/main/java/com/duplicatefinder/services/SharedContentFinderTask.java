@@ -0,0 +1,382 @@
+package com.duplicatefinder.services;
+
+import com.duplicatefinder.models.DuplicateGroup;
+import com.duplicatefinder.models.SharedContentGroup;
+import com.duplicatefinder.utils.ExternalLongSorter;
+import com.duplicatefinder.utils.FastCdcChunker;
+import com.duplicatefinder.utils.PathFilter;
+import com.duplicatefinder.utils.FormatUtils;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Finds large files and directories that share part of their content
+ * (VM images, backups, rotated logs) using content-defined chunking.
+ * Chunk digests are written to a sorted on-disk index, and the bytes each
+ * file pair (then directory pair) shares go through sorted runs too, so
+ * memory stays bounded regardless of how much data is scanned or how many
+ * pairs share something. Only the best {@link #MAX_RESULTS} pairs of each
+ * kind are kept on the heap.
+ */
+public class SharedContentFinderTask extends Task<List<DuplicateGroup>> {
+
+    // Small files are cheaper to compare whole, which the exact mode already does
+    private static final long MIN_FILE_SIZE = 1024 * 1024;
+    private static final long MIN_SHARED_BYTES = 1024 * 1024;
+    private static final int MAX_RESULTS = 500;
+
+    private static final int MIN_CHUNK = 16 * 1024;
+    private static final int AVG_CHUNK = 64 * 1024;
+    private static final int MAX_CHUNK = 256 * 1024;
+    private static final int READ_BUFFER = 1024 * 1024;
+
+    // 4 longs per record: digest high, digest low, file id, chunk length
+    private static final int RECORD_WIDTH = 4;
+    private static final int INDEX_RECORDS_IN_MEMORY = 1 << 20; // 32MB
+    // 3 longs per record: smaller id, larger id, shared bytes (one chunk's worth)
+    private static final int PAIR_WIDTH = 3;
+    private static final int PAIR_RECORDS_IN_MEMORY = 1 << 20; // 24MB
+
+    // Chunks found in very many files (e.g. zero blocks) only count pairs among the first few
+    private static final int MAX_PAIR_FILES_PER_CHUNK = 32;
+    private static final long PROGRESS_STEP = 64L * 1024 * 1024;
+
+    private final ObservableList<File> directories;
+    private final AtomicLong bytesChunked = new AtomicLong();
+    private PathFilter pathFilter = PathFilter.defaults();
+    private ScanThrottle throttle = new ScanThrottle();
+    private final ThreadLocal<FastCdcChunker> chunkers = ThreadLocal.withInitial(
+            () -> new FastCdcChunker(MIN_CHUNK, AVG_CHUNK, MAX_CHUNK, READ_BUFFER));
+
+    public SharedContentFinderTask(ObservableList<File> directories) {
+        this.directories = directories;
+    }
+
+    /**
+     * Replace the default directory exclusions with configured rules.
+     */
+    public void setPathFilter(PathFilter pathFilter) {
+        this.pathFilter = pathFilter;
+    }
+
+    /**
+     * Limits, and pause, shared with the UI while the scan runs.
+     */
+    public void setThrottle(ScanThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Release a paused scan, so its workers see the cancel.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) throttle.resume();
+        return cancelled;
+    }
+
+    @Override
+    protected List<DuplicateGroup> call() throws Exception {
+        updateMessage("Initializing shared content scan...");
+        updateProgress(0, 100);
+
+        // Phase 1: Collect large files
+        List<File> files = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        collectLargeFiles(files, sizes);
+        if (isCancelled() || files.size() < 2) {
+            updateProgress(100, 100);
+            return new ArrayList<>();
+        }
+
+        Path indexDir = Files.createTempDirectory("duplicatefinder-chunks");
+        try (ExternalLongSorter index = new ExternalLongSorter(
+                RECORD_WIDTH, 3, INDEX_RECORDS_IN_MEMORY, indexDir)) {
+
+            // Phase 2: Chunk every file into the on-disk index
+            long totalBytes = sizes.stream().mapToLong(Long::longValue).sum();
+            chunkFiles(files, index, totalBytes);
+            if (isCancelled()) return new ArrayList<>();
+
+            // Phase 3: Walk the sorted index and add up shared chunks
+            updateMessage(String.format("Comparing %s chunks...", formatNumber(index.size())));
+            updateProgress(85, 100);
+            long[] sharedPerFile = new long[files.size()];
+            List<DuplicateGroup> groups;
+            try (ExternalLongSorter filePairs = new ExternalLongSorter(PAIR_WIDTH, 2, PAIR_RECORDS_IN_MEMORY, indexDir)) {
+                analyzeIndex(index, sharedPerFile, filePairs);
+                groups = buildGroups(files, sizes, filePairs, indexDir);
+            }
+            long sharedTotal = Arrays.stream(sharedPerFile).sum();
+            updateMessage(String.format("Found %d shared content groups, %s of %s in shared chunks",
+                    groups.size(), FormatUtils.formatFileSize(sharedTotal), FormatUtils.formatFileSize(totalBytes)));
+            updateProgress(100, 100);
+            return groups;
+        } finally {
+            deleteQuietly(indexDir);
+        }
+    }
+
+    private void collectLargeFiles(List<File> files, List<Long> sizes) throws IOException {
+        updateMessage("Collecting large files...");
+        for (File dir : directories) {
+            if (isCancelled()) return;
+            if (!Files.exists(dir.toPath())) continue;
+
+            Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (isCancelled()) return FileVisitResult.TERMINATE;
+                    if (attrs.isRegularFile() && attrs.size() >= MIN_FILE_SIZE && pathFilter.acceptFile(file, attrs)) {
+                        files.add(file.toFile());
+                        sizes.add(attrs.size());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (isCancelled()) return FileVisitResult.TERMINATE;
+                    if (!pathFilter.acceptDirectory(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+
+    /**
+     * @throws IOException if the index could not be written; unreadable files are only skipped
+     */
+    private void chunkFiles(List<File> files, ExternalLongSorter index, long totalBytes) throws IOException {
+        updateMessage(String.format("Chunking %d files (%s)...", files.size(), FormatUtils.formatFileSize(totalBytes)));
+        updateProgress(5, 100);
+
+        // Each worker streams one file at a time through its own fixed buffer
+        try {
+            IntStream.range(0, files.size()).parallel().forEach(fileId -> chunkFile(files, fileId, index, totalBytes));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void chunkFile(List<File> files, int fileId, ExternalLongSorter index, long totalBytes) {
+        if (isCancelled() || !throttle.acquireFile()) return;
+        try (InputStream in = Files.newInputStream(files.get(fileId).toPath())) {
+            chunkers.get().chunk(new CancellableInputStream(in), (offset, length, high, low) -> {
+                try {
+                    index.add(high, low, fileId, length);
+                } catch (IOException e) {
+                    // A lost index record would silently shrink the results, so the scan fails
+                    throw new UncheckedIOException(e);
+                }
+                long done = bytesChunked.addAndGet(length);
+                if ((done - length) / PROGRESS_STEP != done / PROGRESS_STEP) {
+                    updateMessage(String.format("Chunked %s of %s",
+                            FormatUtils.formatFileSize(done), FormatUtils.formatFileSize(totalBytes)));
+                    updateProgress(5 + 80.0 * done / totalBytes, 100);
+                }
+            });
+        } catch (IOException e) {
+            // Unreadable file, skip it
+        }
+    }
+
+    private void analyzeIndex(ExternalLongSorter index, long[] sharedPerFile, ExternalLongSorter filePairs)
+            throws IOException {
+        long[] record = new long[RECORD_WIDTH];
+        // Distinct files holding the current chunk, with the bytes each holds of it
+        long[] runFiles = new long[MAX_PAIR_FILES_PER_CHUNK];
+        long[] runBytes = new long[MAX_PAIR_FILES_PER_CHUNK];
+        int runCount = 0;
+        long currentHigh = 0;
+        long currentLow = 0;
+        boolean first = true;
+
+        try (ExternalLongSorter.MergeIterator it = index.sortedIterator()) {
+            while (it.next(record)) {
+                if (first || record[0] != currentHigh || record[1] != currentLow) {
+                    flushChunk(runFiles, runBytes, runCount, sharedPerFile, filePairs);
+                    currentHigh = record[0];
+                    currentLow = record[1];
+                    runCount = 0;
+                    first = false;
+                }
+
+                long fileId = record[2];
+                long length = record[3];
+                if (runCount > 0 && runFiles[runCount - 1] == fileId) {
+                    runBytes[runCount - 1] += length;
+                } else if (runCount < runFiles.length) {
+                    runFiles[runCount] = fileId;
+                    runBytes[runCount] = length;
+                    runCount++;
+                } else {
+                    // Already shared by many files, only the per-file total is kept
+                    sharedPerFile[(int) fileId] += length;
+                }
+            }
+            flushChunk(runFiles, runBytes, runCount, sharedPerFile, filePairs);
+        }
+    }
+
+    private void flushChunk(long[] runFiles, long[] runBytes, int runCount,
+                            long[] sharedPerFile, ExternalLongSorter filePairs) throws IOException {
+        if (runCount < 2) return;
+
+        for (int i = 0; i < runCount; i++) {
+            sharedPerFile[(int) runFiles[i]] += runBytes[i];
+            for (int j = i + 1; j < runCount; j++) {
+                // Files are sorted by id within a chunk, so the pair is always (smaller, larger)
+                filePairs.add(runFiles[i], runFiles[j], Math.min(runBytes[i], runBytes[j]));
+            }
+        }
+    }
+
+    /**
+     * Add up each pair's shared bytes in sorted order, keeping the best file
+     * pairs, and roll them up into directory pairs through a second sorter.
+     */
+    private List<DuplicateGroup> buildGroups(List<File> files, List<Long> sizes, ExternalLongSorter filePairs,
+                                             Path workDir) throws IOException {
+        // Directories by id, so directory pairs are records of longs as well
+        Map<File, Integer> directoryIds = new HashMap<>();
+        List<File> directories = new ArrayList<>();
+        List<Long> directorySizes = new ArrayList<>();
+        int[] directoryOf = new int[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            File directory = files.get(i).getParentFile();
+            Integer id = directoryIds.get(directory);
+            if (id == null) {
+                id = directories.size();
+                directoryIds.put(directory, id);
+                directories.add(directory);
+                directorySizes.add(0L);
+            }
+            directoryOf[i] = id;
+            directorySizes.set(id, directorySizes.get(id) + sizes.get(i));
+        }
+
+        PriorityQueue<long[]> bestFilePairs = new PriorityQueue<>(Comparator.comparingLong(pair -> pair[2]));
+        PriorityQueue<long[]> bestDirectoryPairs = new PriorityQueue<>(Comparator.comparingLong(pair -> pair[2]));
+        try (ExternalLongSorter directoryPairs = new ExternalLongSorter(PAIR_WIDTH, 2, PAIR_RECORDS_IN_MEMORY, workDir)) {
+            sumPairs(filePairs, (a, b, bytes) -> {
+                keepBest(bestFilePairs, a, b, bytes);
+                int dirA = directoryOf[(int) a];
+                int dirB = directoryOf[(int) b];
+                if (dirA != dirB) directoryPairs.add(Math.min(dirA, dirB), Math.max(dirA, dirB), bytes);
+            });
+            sumPairs(directoryPairs, (a, b, bytes) -> keepBest(bestDirectoryPairs, a, b, bytes));
+        }
+
+        List<DuplicateGroup> groups = new ArrayList<>();
+        for (long[] pair : bestFilePairs) {
+            int a = (int) pair[0];
+            int b = (int) pair[1];
+            groups.add(new SharedContentGroup(List.of(files.get(a), files.get(b)), pair[2],
+                    Math.min(sizes.get(a), sizes.get(b)), false));
+        }
+        for (long[] pair : bestDirectoryPairs) {
+            File dirA = directories.get((int) pair[0]);
+            File dirB = directories.get((int) pair[1]);
+            List<File> members = dirA.compareTo(dirB) < 0 ? List.of(dirA, dirB) : List.of(dirB, dirA);
+            long smaller = Math.min(directorySizes.get((int) pair[0]), directorySizes.get((int) pair[1]));
+            groups.add(new SharedContentGroup(members, pair[2], smaller, true));
+        }
+
+        groups.sort((g1, g2) -> Long.compare(g2.getWastedSize(), g1.getWastedSize()));
+        return groups;
+    }
+
+    private interface PairVisitor {
+        void visit(long a, long b, long sharedBytes) throws IOException;
+    }
+
+    /**
+     * Visit each distinct pair once with the sum of its records' bytes.
+     */
+    private void sumPairs(ExternalLongSorter pairs, PairVisitor visitor) throws IOException {
+        long[] record = new long[PAIR_WIDTH];
+        long a = -1;
+        long b = -1;
+        long sum = 0;
+        try (ExternalLongSorter.MergeIterator it = pairs.sortedIterator()) {
+            while (it.next(record)) {
+                if (record[0] != a || record[1] != b) {
+                    if (a >= 0) visitor.visit(a, b, sum);
+                    a = record[0];
+                    b = record[1];
+                    sum = 0;
+                }
+                sum += record[2];
+            }
+        }
+        if (a >= 0) visitor.visit(a, b, sum);
+    }
+
+    /**
+     * Keep the {@link #MAX_RESULTS} pairs sharing the most bytes, of those sharing at least {@link #MIN_SHARED_BYTES}.
+     */
+    private static void keepBest(PriorityQueue<long[]> best, long a, long b, long sharedBytes) {
+        if (sharedBytes < MIN_SHARED_BYTES) return;
+        if (best.size() == MAX_RESULTS) {
+            if (best.peek()[2] >= sharedBytes) return;
+            best.poll();
+        }
+        best.add(new long[]{a, b, sharedBytes});
+    }
+
+    private void deleteQuietly(Path dir) {
+        try (var paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Failed to remove chunk index: " + dir);
+        }
+    }
+
+    private String formatNumber(long number) {
+        if (number >= 1_000_000) {
+            return String.format("%.1fM", number / 1_000_000.0);
+        } else if (number >= 1_000) {
+            return String.format("%.1fK", number / 1_000.0);
+        }
+        return Long.toString(number);
+    }
+
+    /**
+     * Stops a long chunking read as soon as the task is cancelled, and
+     * holds it while the scan is paused.
+     */
+    private class CancellableInputStream extends FilterInputStream {
+        CancellableInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (isCancelled()) return -1;
+            int read = super.read(b, off, len);
+            // Waits here while the scan is paused or over its read rate
+            if (read > 0 && !throttle.acquireBytes(read)) return -1;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.duplicatefinder.services;
+
+import com.duplicatefinder.models.DuplicateGroup;
+import com.duplicatefinder.models.SimilarImageGroup;
+import com.duplicatefinder.utils.BKTree;
+import com.duplicatefinder.utils.PathFilter;
+import com.duplicatefinder.utils.ImageUtils;
+import com.duplicatefinder.utils.PerceptualHash;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Finds visually similar images (re-encoded, resized or lightly edited copies)
+ * by comparing perceptual hashes instead of file contents.
+ *
+ * Every member of a group is within the distance of the group's first
+ * image, not merely of some other member, so a chain of small edits does
+ * not join images that look nothing alike.
+ */
+public class SimilarImageFinderTask extends Task<List<DuplicateGroup>> {
+
+    // Decoding at 32px is plenty for a 9x8 hash and keeps subsampling aggressive
+    private static final int DECODE_SIZE = 32;
+    private static final int DEFAULT_MAX_DISTANCE = 10;
+
+    private final ObservableList<File> directories;
+    private final int maxDistance;
+    private final AtomicLong imagesHashed = new AtomicLong();
+    private PathFilter pathFilter = PathFilter.defaults();
+    private ScanThrottle throttle = new ScanThrottle();
+
+    public SimilarImageFinderTask(ObservableList<File> directories) {
+        this(directories, DEFAULT_MAX_DISTANCE);
+    }
+
+    /**
+     * @param maxDistance largest Hamming distance (out of 64 bits) for two images to count as similar
+     */
+    public SimilarImageFinderTask(ObservableList<File> directories, int maxDistance) {
+        this.directories = directories;
+        this.maxDistance = maxDistance;
+    }
+
+    /**
+     * Replace the default directory exclusions with configured rules.
+     */
+    public void setPathFilter(PathFilter pathFilter) {
+        this.pathFilter = pathFilter;
+    }
+
+    /**
+     * Limits, and pause, shared with the UI while the scan runs.
+     */
+    public void setThrottle(ScanThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Release a paused scan, so its workers see the cancel.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) throttle.resume();
+        return cancelled;
+    }
+
+    @Override
+    protected List<DuplicateGroup> call() throws Exception {
+        updateMessage("Initializing similar image scan...");
+        updateProgress(0, 100);
+
+        // Phase 1: Collect image files
+        updateMessage("Collecting images...");
+        List<File> images = collectImages();
+        if (isCancelled()) return List.of();
+
+        // Phase 2: Perceptual hashes, decoded in parallel
+        updateMessage(String.format("Hashing %d images...", images.size()));
+        updateProgress(10, 100);
+        boolean[] hashed = new boolean[images.size()];
+        long[] hashes = hashImages(images, hashed);
+        if (isCancelled()) return List.of();
+
+        // Phase 3: Cluster near hashes
+        updateMessage("Grouping similar images...");
+        updateProgress(90, 100);
+        List<DuplicateGroup> groups = clusterSimilar(images, hashes, hashed);
+
+        groups.sort((g1, g2) -> Long.compare(g2.getWastedSize(), g1.getWastedSize()));
+
+        updateMessage(String.format("Found %d similar image groups", groups.size()));
+        updateProgress(100, 100);
+        return groups;
+    }
+
+    private List<File> collectImages() throws IOException {
+        List<File> images = new ArrayList<>();
+        for (File dir : directories) {
+            if (isCancelled()) break;
+            if (!Files.exists(dir.toPath())) continue;
+
+            Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (isCancelled()) return FileVisitResult.TERMINATE;
+                    if (attrs.size() > 0 && pathFilter.acceptFile(file, attrs)
+                            && ThumbnailService.getFileType(file.getFileName().toString()).equals("image")) {
+                        images.add(file.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (isCancelled()) return FileVisitResult.TERMINATE;
+                    if (!pathFilter.acceptDirectory(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return images;
+    }
+
+    /**
+     * @param hashed set for each image that was decoded and hashed; any 64-bit value is a valid
+     *               hash, so the others (undecodable, or skipped by a cancel) are only marked here
+     * @return one hash per image, meaningful where hashed is set
+     */
+    private long[] hashImages(List<File> images, boolean[] hashed) {
+        long[] hashes = new long[images.size()];
+        int total = images.size();
+
+        IntStream.range(0, total).parallel().forEach(i -> {
+            if (isCancelled() || !throttle.acquireFile()) return;
+            try {
+                BufferedImage decoded = ImageUtils.decodeForSize(images.get(i).toPath(), DECODE_SIZE, this::isCancelled);
+                if (decoded != null) {
+                    hashes[i] = PerceptualHash.differenceHash(decoded);
+                    hashed[i] = true;
+                }
+            } catch (Exception e) {
+                // Unreadable or unsupported image, leave it out
+            }
+
+            long done = imagesHashed.incrementAndGet();
+            if (done % 50 == 0) {
+                updateMessage(String.format("Hashed %d/%d images", done, total));
+                updateProgress(10 + 80.0 * done / total, 100);
+            }
+        });
+        return hashes;
+    }
+
+    /**
+     * Each image not yet grouped starts a group and takes every ungrouped
+     * image within the distance of it, in walk order.
+     */
+    private List<DuplicateGroup> clusterSimilar(List<File> images, long[] hashes, boolean[] hashed) {
+        BKTree<Integer> tree = new BKTree<>();
+        for (int i = 0; i < images.size(); i++) {
+            if (hashed[i]) {
+                tree.add(hashes[i], i);
+            }
+        }
+
+        boolean[] grouped = new boolean[images.size()];
+        List<DuplicateGroup> groups = new ArrayList<>();
+        for (int i = 0; i < images.size(); i++) {
+            if (isCancelled()) return new ArrayList<>();
+            if (!hashed[i] || grouped[i]) continue;
+
+            long reference = hashes[i];
+            List<Integer> members = new ArrayList<>();
+            tree.search(reference, maxDistance, other -> {
+                if (!grouped[other]) members.add(other);
+            });
+            if (members.size() < 2) continue;
+
+            int groupDistance = 0;
+            List<File> files = new ArrayList<>(members.size());
+            for (int index : members) {
+                grouped[index] = true;
+                files.add(images.get(index));
+                groupDistance = Math.max(groupDistance, BKTree.distance(reference, hashes[index]));
+            }
+            // Largest file first so it is the one kept by default
+            files.sort((f1, f2) -> Long.compare(f2.length(), f1.length()));
+            groups.add(new SimilarImageGroup(PerceptualHash.toHex(reference), files, groupDistance));
+        }
+        return groups;
+    }
+}
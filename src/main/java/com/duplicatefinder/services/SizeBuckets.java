@@ -0,0 +1,253 @@
+package com.duplicatefinder.services;
+
+import com.duplicatefinder.models.ArchiveEntryFile;
+import com.duplicatefinder.utils.ExternalLongSorter;
+import com.duplicatefinder.utils.FileUtils;
+import com.duplicatefinder.utils.PathStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Walked files grouped by size, between the walk and the hashing stages of
+ * an exact scan, in a bounded amount of memory.
+ *
+ * Files are kept in a map while its estimated size stays within the budget.
+ * Past it, the map spills: paths go to a {@link PathStore} and (size, path
+ * id) records to an {@link ExternalLongSorter}, which every later file goes
+ * through too. Adding is synchronized, so walkers wait while a spill is
+ * written rather than running ahead of it. Buckets are then read back in
+ * size order, and a bucket's paths are only read from disk if it has two
+ * or more files; unique sizes never come back into memory.
+ *
+ * Archive entries cannot be rebuilt from a path, and files of at least
+ * keepInMemoryFrom bytes are few but wanted early (to measure devices), so
+ * both always stay in the map.
+ */
+public class SizeBuckets implements AutoCloseable {
+
+    /** Visits the size of every bucket with two or more files */
+    public interface SizeVisitor {
+        void visit(long size, int count);
+    }
+
+    /** Visits every bucket with two or more files; return false to stop */
+    public interface BucketVisitor {
+        boolean visit(long size, List<File> files) throws InterruptedException;
+    }
+
+    // Rough heap cost of a File and its path string, and of a new size entry in the map
+    private static final long FILE_BYTES = 80;
+    private static final long SIZE_BYTES = 128;
+    // A spilled record: size and path id
+    private static final int RECORD_BYTES = 16;
+
+    private final long mapBudget;
+    private final int recordsInMemory;
+    private final Path workDirectory;
+    private final long keepInMemoryFrom;
+    private final Map<Long, List<File>> files = new HashMap<>();
+    private long estimatedBytes;
+
+    private Path spillDirectory;
+    private PathStore paths;
+    private ExternalLongSorter spilled;
+    private IOException spillError;
+
+    /**
+     * @param heapBudgetBytes half holds the map, and after a spill the sort buffer;
+     *                        the rest is left for the files being hashed
+     * @param workDirectory where the spill directory is created, only if needed
+     */
+    public SizeBuckets(long heapBudgetBytes, Path workDirectory, long keepInMemoryFrom) {
+        this.mapBudget = heapBudgetBytes / 2;
+        this.recordsInMemory = (int) Math.max(1024, Math.min(Integer.MAX_VALUE / 4, mapBudget / RECORD_BYTES));
+        this.workDirectory = workDirectory;
+        this.keepInMemoryFrom = keepInMemoryFrom;
+    }
+
+    /**
+     * A failed spill is not thrown here, where walkers would skip it as an
+     * unreadable file, but when the buckets are read.
+     */
+    public synchronized void add(File file, long size) {
+        if (spillError != null) return;
+        if (spilled != null && !keepsInMemory(file, size)) {
+            try {
+                spilled.add(size, paths.add(file.getPath()));
+            } catch (IOException e) {
+                spillError = e;
+            }
+            return;
+        }
+        List<File> bucket = files.get(size);
+        if (bucket == null) {
+            bucket = new ArrayList<>(2);
+            files.put(size, bucket);
+            estimatedBytes += SIZE_BYTES;
+        }
+        bucket.add(file);
+        estimatedBytes += FILE_BYTES + file.getPath().length();
+        if (spilled == null && estimatedBytes > mapBudget) {
+            try {
+                spill();
+            } catch (IOException e) {
+                spillError = e;
+            }
+        }
+    }
+
+    /** True once files went to disk */
+    public synchronized boolean isSpilled() {
+        return spilled != null;
+    }
+
+    /** Spilled files, for the progress message */
+    public synchronized long spilledFiles() {
+        return spilled == null ? 0 : spilled.size();
+    }
+
+    private boolean keepsInMemory(File file, long size) {
+        return size >= keepInMemoryFrom || file instanceof ArchiveEntryFile;
+    }
+
+    private void spill() throws IOException {
+        spillDirectory = Files.createTempDirectory(workDirectory, "size-buckets");
+        paths = new PathStore(spillDirectory.resolve("paths.bin"));
+        // Keyed on the path id too, so a bucket keeps the order its files were added in
+        spilled = new ExternalLongSorter(2, 2, recordsInMemory, spillDirectory);
+        estimatedBytes = 0;
+        for (Iterator<Map.Entry<Long, List<File>>> entries = files.entrySet().iterator(); entries.hasNext(); ) {
+            Map.Entry<Long, List<File>> entry = entries.next();
+            long size = entry.getKey();
+            List<File> kept = new ArrayList<>(0);
+            for (File file : entry.getValue()) {
+                if (keepsInMemory(file, size)) {
+                    kept.add(file);
+                    estimatedBytes += FILE_BYTES + file.getPath().length();
+                } else {
+                    spilled.add(size, paths.add(file.getPath()));
+                }
+            }
+            if (kept.isEmpty()) {
+                entries.remove();
+            } else {
+                entry.setValue(kept);
+                estimatedBytes += SIZE_BYTES;
+            }
+        }
+    }
+
+    /**
+     * Walk the buckets' sizes without reading any paths, e.g. to total up the work ahead.
+     * No more files may be added once buckets are read.
+     */
+    public synchronized void forEachSize(SizeVisitor visitor) throws IOException {
+        try {
+            read(false, (size, count, bucket) -> {
+                visitor.visit(size, count);
+                return true;
+            });
+        } catch (InterruptedException e) {
+            // Only thrown by bucket visitors
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Walk the buckets with their files: in size order once spilled, in no
+     * particular order otherwise. Only the current bucket's spilled files are
+     * in memory, so a visitor that blocks holds back the reading.
+     */
+    public synchronized void forEachBucket(BucketVisitor visitor) throws IOException, InterruptedException {
+        read(true, (size, count, bucket) -> visitor.visit(size, bucket));
+    }
+
+    /**
+     * Buckets of at least keepInMemoryFrom bytes, which are always complete in memory.
+     */
+    public synchronized void forEachLargeBucket(BucketVisitor visitor) throws InterruptedException {
+        for (Map.Entry<Long, List<File>> entry : files.entrySet()) {
+            if (entry.getKey() < keepInMemoryFrom || entry.getValue().size() < 2) continue;
+            if (!visitor.visit(entry.getKey(), entry.getValue())) return;
+        }
+    }
+
+    private interface Reader {
+        boolean visit(long size, int count, List<File> bucket) throws IOException, InterruptedException;
+    }
+
+    private void read(boolean withFiles, Reader reader) throws IOException, InterruptedException {
+        if (spillError != null) throw spillError;
+        if (spilled == null) {
+            for (Map.Entry<Long, List<File>> entry : files.entrySet()) {
+                if (entry.getValue().size() < 2) continue;
+                if (!reader.visit(entry.getKey(), entry.getValue().size(), entry.getValue())) return;
+            }
+            return;
+        }
+
+        paths.seal();
+        // Merge the kept files, by size, into the sorted stream
+        long[] keptSizes = new long[files.size()];
+        int k = 0;
+        for (long size : files.keySet()) keptSizes[k++] = size;
+        Arrays.sort(keptSizes);
+        int nextKept = 0;
+
+        long[] record = new long[2];
+        long[] ids = new long[16];
+        try (ExternalLongSorter.MergeIterator sorted = spilled.sortedIterator()) {
+            boolean more = sorted.next(record);
+            while (more || nextKept < keptSizes.length) {
+                long size = more ? record[0] : Long.MAX_VALUE;
+                if (nextKept < keptSizes.length && keptSizes[nextKept] <= size) {
+                    size = keptSizes[nextKept++];
+                }
+                int count = 0;
+                while (more && record[0] == size) {
+                    if (count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+                    ids[count++] = record[1];
+                    more = sorted.next(record);
+                }
+                List<File> kept = files.getOrDefault(size, List.of());
+                int total = count + kept.size();
+                if (total < 2) continue;
+
+                List<File> bucket = null;
+                if (withFiles) {
+                    bucket = new ArrayList<>(total);
+                    bucket.addAll(kept);
+                    for (int i = 0; i < count; i++) {
+                        bucket.add(new File(paths.get(ids[i])));
+                    }
+                }
+                if (!reader.visit(size, total, bucket)) return;
+                if (ids.length > 1024) ids = new long[16];
+            }
+        }
+    }
+
+    /**
+     * Delete the spill files, if any.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            if (spilled != null) spilled.close();
+            if (paths != null) paths.close();
+        } catch (IOException e) {
+            System.err.println("Could not remove scan spill files: " + e.getMessage());
+        }
+        if (spillDirectory != null) FileUtils.deleteFiles(List.of(spillDirectory));
+        files.clear();
+    }
+}
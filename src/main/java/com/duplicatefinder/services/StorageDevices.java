@@ -0,0 +1,382 @@
+package com.duplicatefinder.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+
+/**
+ * Tracks which storage device each scanned path lives on and gives every
+ * device its own walker thread and hashing pool, so a slow USB disk or
+ * network mount only ever occupies its own threads.
+ *
+ * Devices are told apart by the unix device number where available, and by
+ * {@link FileStore} otherwise. Mount points are recorded as the walk finds
+ * them; a file's device is that of the deepest recorded mount point above it.
+ *
+ * Each device reads with a {@link DeviceProfile}: guessed from the device
+ * type, then replaced by a measured one once {@link #calibrate} has run.
+ */
+public class StorageDevices implements AutoCloseable {
+
+    // Network and removable filesystems, where parallel reads mostly add seeking and round trips
+    private static final Set<String> SLOW_TYPES = Set.of(
+            "nfs", "nfs4", "cifs", "smbfs", "smb3", "fuse.sshfs", "sshfs", "afpfs", "webdav", "9p",
+            "vfat", "exfat", "msdos", "fuseblk");
+    private static final int SLOW_DEVICE_THREADS = 2;
+    // Async settings for devices that were not measured
+    private static final int ASYNC_BUFFER_SIZE = 256 * 1024;
+    private static final int ASYNC_QUEUE_DEPTH = 64;
+    // Directories whose device is remembered; past this the cache starts over
+    private static final int MAX_CACHED_DIRECTORIES = 64 * 1024;
+
+    // Measured profiles by device, kept for later scans in the same run of the application
+    private static final Map<Object, DeviceProfile> MEASURED = new ConcurrentHashMap<>();
+
+    // The device whose hashing pool the current thread belongs to
+    private static final ThreadLocal<Object> HASHING_FOR = new ThreadLocal<>();
+
+    private static final boolean UNIX_DEVICES =
+            FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    private final int threadsPerDevice;
+    private final Map<Object, Device> devices = new ConcurrentHashMap<>();
+    private final List<MountPoint> mountPoints = new CopyOnWriteArrayList<>();
+    // Device by parent directory, so files in the same directory skip the mount point scan
+    private final Map<String, Object> directoryDevices = new ConcurrentHashMap<>();
+    private final Device fallback;
+    private int asyncQueueDepth;
+    private BooleanSupplier cancelled = () -> false;
+    private LongConsumer bytesRead = bytes -> { };
+
+    /**
+     * @param threadsPerDevice hashing threads per device, or 0 for the measured or guessed queue depth
+     */
+    public StorageDevices(int threadsPerDevice) {
+        this.threadsPerDevice = threadsPerDevice;
+        this.fallback = new Device("unknown", null, DeviceProfile.guess(defaultThreads()));
+    }
+
+    /**
+     * @return a key that is equal for two paths on the same device
+     */
+    public Object deviceOf(Path path) {
+        try {
+            if (UNIX_DEVICES) {
+                return Files.getAttribute(path, "unix:dev", LinkOption.NOFOLLOW_LINKS);
+            }
+            return Files.getFileStore(path);
+        } catch (IOException | UnsupportedOperationException e) {
+            return fallback.key;
+        }
+    }
+
+    /**
+     * Record that the subtree at dir is on the given device.
+     */
+    public void addMountPoint(Path dir, Object device) {
+        devices.computeIfAbsent(device, key -> createDevice(key, dir));
+        mountPoints.add(new MountPoint(dir.toAbsolutePath(), device));
+        // A new mount point can change the answer for directories below it
+        directoryDevices.clear();
+    }
+
+    public Object deviceForFile(File file) {
+        String parent = file.getAbsoluteFile().getParent();
+        if (parent == null) return deviceAbove(file.toPath().toAbsolutePath());
+        Object device = directoryDevices.get(parent);
+        if (device == null) {
+            device = deviceAbove(Paths.get(parent));
+            if (directoryDevices.size() >= MAX_CACHED_DIRECTORIES) directoryDevices.clear();
+            directoryDevices.put(parent, device);
+        }
+        return device;
+    }
+
+    /**
+     * @return the device of the deepest recorded mount point at or above the path
+     */
+    private Object deviceAbove(Path path) {
+        MountPoint best = null;
+        for (MountPoint mountPoint : mountPoints) {
+            if (path.startsWith(mountPoint.path)
+                    && (best == null || mountPoint.path.getNameCount() > best.path.getNameCount())) {
+                best = mountPoint;
+            }
+        }
+        return best != null ? best.device : fallback.key;
+    }
+
+    public ExecutorService walkExecutor(Object device) {
+        return device(device).walker();
+    }
+
+    public ExecutorService hashExecutor(Object device) {
+        return device(device).hashers();
+    }
+
+    /**
+     * @return true on one of the device's hashing threads, where a follow-up
+     *         read can run straight away instead of queueing behind the others
+     */
+    public boolean isHashThreadOf(Object device) {
+        return HASHING_FOR.get() == device(device);
+    }
+
+    /**
+     * The device's read size and reads in flight: measured, or guessed from its type.
+     */
+    public DeviceProfile profile(Object device) {
+        return device(device).profile;
+    }
+
+    public boolean isCalibrated(Object device) {
+        return device(device).profile.isMeasured();
+    }
+
+    /**
+     * Measure the device by reading parts of sample, once per device for
+     * the life of the application; must run before the device's hashing
+     * starts. Keeps the guessed profile if the sample cannot be read.
+     *
+     * @param sample a file on the device of at least {@link DeviceProfile#MIN_SAMPLE_BYTES}
+     */
+    public void calibrate(Object device, File sample) {
+        Device info = device(device);
+        if (info == fallback || info.profile.isMeasured()) return;
+        DeviceProfile measured = MEASURED.get(info.key);
+        if (measured == null) {
+            try {
+                measured = DeviceProfile.calibrate(sample.toPath(), sample.length(), cancelled);
+            } catch (IOException e) {
+                // Vanished or unreadable, hashing will skip it too
+                return;
+            }
+            if (measured == null) return;
+            MEASURED.put(info.key, measured);
+        }
+        info.useProfile(withThreadOverride(measured));
+    }
+
+    /**
+     * @param queueDepth reads in flight per device for {@link #asyncHasher}, or 0 for each device's own
+     */
+    public void setAsyncIo(int queueDepth, BooleanSupplier cancelled, LongConsumer bytesRead) {
+        this.asyncQueueDepth = queueDepth;
+        this.cancelled = cancelled;
+        this.bytesRead = bytesRead;
+    }
+
+    /**
+     * Limits concurrent reads on one device when work runs on virtual threads,
+     * which would otherwise all hit the disk at once.
+     */
+    public Semaphore ioPermits(Object device) {
+        return device(device).permits;
+    }
+
+    public AsyncFileHasher asyncHasher(Object device) {
+        return device(device).asyncHasher();
+    }
+
+    public int deviceCount() {
+        return devices.size();
+    }
+
+    /**
+     * @return e.g. "/dev/sdb1 (exfat, 1.0 MB reads, 2 in flight)"
+     */
+    public String describe(Object device) {
+        Device info = device(device);
+        String name = info.store != null ? info.store.name() + " (" + info.store.type() + ", " : "unknown (";
+        return name + info.profile + ")";
+    }
+
+    /**
+     * Stop walks and reads at once, from any thread: pool threads are
+     * interrupted, which closes their blocking reads, and async reads are
+     * aborted. {@link #close()} still follows from the scanning thread.
+     */
+    public void cancel() {
+        for (Device device : devices.values()) {
+            device.shutdown(false);
+        }
+        fallback.shutdown(false);
+    }
+
+    @Override
+    public void close() {
+        for (Device device : devices.values()) {
+            device.shutdown(true);
+        }
+        fallback.shutdown(true);
+    }
+
+    private Device device(Object key) {
+        Device device = devices.get(key);
+        return device != null ? device : fallback;
+    }
+
+    private Device createDevice(Object key, Path sample) {
+        FileStore store = null;
+        try {
+            store = Files.getFileStore(sample);
+        } catch (IOException e) {
+            // Still usable, just with the default thread count
+        }
+        DeviceProfile measured = MEASURED.get(key);
+        if (measured != null) return new Device(key, store, withThreadOverride(measured));
+        int threads = threadsPerDevice;
+        if (threads <= 0) {
+            threads = isSlow(store, key) ? SLOW_DEVICE_THREADS : defaultThreads();
+        }
+        return new Device(key, store, DeviceProfile.guess(threads));
+    }
+
+    /**
+     * A thread count given in the options wins over the measured queue depth.
+     */
+    private DeviceProfile withThreadOverride(DeviceProfile measured) {
+        if (threadsPerDevice <= 0) return measured;
+        return new DeviceProfile(measured.getReadSize(), threadsPerDevice, true);
+    }
+
+    private static boolean isSlow(FileStore store, Object key) {
+        if (store != null && SLOW_TYPES.contains(store.type().toLowerCase())) return true;
+        return key instanceof Long dev && isRotational(dev);
+    }
+
+    /**
+     * Linux exposes whether a block device spins in sysfs; elsewhere this is unknown.
+     */
+    private static boolean isRotational(long dev) {
+        long major = ((dev >> 8) & 0xfff) | ((dev >> 32) & ~0xfffL);
+        long minor = (dev & 0xff) | ((dev >> 12) & ~0xffL);
+        Path block = Paths.get("/sys/dev/block", major + ":" + minor);
+        // Partitions keep the queue settings on their parent disk
+        for (Path queue : List.of(block.resolve("queue/rotational"), block.resolve("../queue/rotational"))) {
+            try {
+                return Files.readString(queue).trim().equals("1");
+            } catch (IOException e) {
+                // Not there, try the next location
+            }
+        }
+        return false;
+    }
+
+    private static int defaultThreads() {
+        return Math.max(2, Runtime.getRuntime().availableProcessors());
+    }
+
+    private static class MountPoint {
+        final Path path;
+        final Object device;
+
+        MountPoint(Path path, Object device) {
+            this.path = path;
+            this.device = device;
+        }
+    }
+
+    private class Device {
+        final Object key;
+        final FileStore store;
+        volatile DeviceProfile profile;
+        volatile Semaphore permits;
+        private ExecutorService walker;
+        private ExecutorService hashers;
+        private AsyncFileHasher asyncHasher;
+
+        Device(Object key, FileStore store, DeviceProfile profile) {
+            this.key = key;
+            this.store = store;
+            useProfile(profile);
+        }
+
+        /**
+         * Pools and hashers created after this use the new profile.
+         */
+        void useProfile(DeviceProfile profile) {
+            this.profile = profile;
+            this.permits = new Semaphore(profile.getQueueDepth());
+        }
+
+        synchronized ExecutorService walker() {
+            if (walker == null) {
+                walker = Executors.newSingleThreadExecutor(daemonThreads("walker"));
+            }
+            return walker;
+        }
+
+        synchronized ExecutorService hashers() {
+            if (hashers == null) {
+                ThreadFactory threadFactory = daemonThreads("hasher");
+                hashers = Executors.newFixedThreadPool(profile.getQueueDepth(), runnable -> threadFactory.newThread(() -> {
+                    HASHING_FOR.set(this);
+                    runnable.run();
+                }));
+            }
+            return hashers;
+        }
+
+        synchronized AsyncFileHasher asyncHasher() {
+            if (asyncHasher == null) {
+                int queueDepth = asyncQueueDepth > 0 ? asyncQueueDepth
+                        : profile.isMeasured() ? profile.getQueueDepth() : ASYNC_QUEUE_DEPTH;
+                int bufferSize = profile.isMeasured() ? profile.getReadSize() : ASYNC_BUFFER_SIZE;
+                asyncHasher = new AsyncFileHasher(queueDepth, bufferSize, cancelled, bytesRead);
+            }
+            return asyncHasher;
+        }
+
+        /**
+         * @param close also fail queued async requests, which can take a while with many queued
+         */
+        void shutdown(boolean close) {
+            ExecutorService walkerPool;
+            ExecutorService hasherPool;
+            AsyncFileHasher hasher;
+            synchronized (this) {
+                walkerPool = walker;
+                hasherPool = hashers;
+                hasher = asyncHasher;
+            }
+            // Outside the lock, so a cancel never waits for a close in progress
+            if (walkerPool != null) walkerPool.shutdownNow();
+            if (hasherPool != null) hasherPool.shutdownNow();
+            if (hasher != null) {
+                if (close) {
+                    hasher.close();
+                } else {
+                    hasher.abort();
+                }
+            }
+        }
+
+        private ThreadFactory daemonThreads(String role) {
+            AtomicInteger count = new AtomicInteger();
+            String name = store != null ? store.name() : String.valueOf(key);
+            return runnable -> {
+                Thread thread = new Thread(runnable, role + "-" + name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.duplicatefinder.services;
+
+import javafx.scene.image.Image;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU cache for thumbnails.
+ * The in-memory part is weighted by decoded pixel bytes and is safe to use
+ * from the thumbnail worker threads. An optional disk directory keeps
+ * generated thumbnails as PNG files between runs.
+ */
+public class ThumbnailCache {
+    private static final long ICON_WEIGHT = 64;
+
+    private final long maxBytes;
+    private final Path diskDirectory;
+    private final LinkedHashMap<String, Image> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long currentBytes;
+
+    public ThumbnailCache(long maxBytes, Path diskDirectory) {
+        this.maxBytes = maxBytes;
+        this.diskDirectory = diskDirectory;
+        if (diskDirectory != null) {
+            try {
+                Files.createDirectories(diskDirectory);
+            } catch (IOException e) {
+                System.err.println("Thumbnail disk cache disabled: " + e.getMessage());
+            }
+        }
+    }
+
+    public synchronized Image get(String key) {
+        return entries.get(key);
+    }
+
+    public synchronized void put(String key, Image image) {
+        Image previous = entries.put(key, image);
+        if (previous != null) {
+            currentBytes -= weightOf(previous);
+        }
+        currentBytes += weightOf(image);
+        evictIfNeeded();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, Image>> it = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Image> eldest = it.next();
+            currentBytes -= weightOf(eldest.getValue());
+            it.remove();
+        }
+    }
+
+    private long weightOf(Image image) {
+        long pixels = (long) image.getWidth() * (long) image.getHeight();
+        // Shared type icons are tiny compared with real previews
+        return pixels > 0 ? pixels * 4 : ICON_WEIGHT;
+    }
+
+    // Disk cache
+
+    public boolean isDiskCacheEnabled() {
+        return diskDirectory != null && Files.isDirectory(diskDirectory);
+    }
+
+    /**
+     * Read a thumbnail previously stored for this key, or null if absent.
+     */
+    public BufferedImage readFromDisk(String key) {
+        if (!isDiskCacheEnabled()) return null;
+        Path file = diskFile(key);
+        if (!Files.exists(file)) return null;
+        try {
+            return ImageIO.read(file.toFile());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public void writeToDisk(String key, BufferedImage thumbnail) {
+        if (!isDiskCacheEnabled()) return;
+        Path file = diskFile(key);
+        Path temp = null;
+        try {
+            // Write to a temp file first so readers never see a half-written PNG
+            temp = Files.createTempFile(diskDirectory, "thumb", ".tmp");
+            ImageIO.write(thumbnail, "png", temp.toFile());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Failed to write thumbnail: " + e.getMessage());
+            try {
+                if (temp != null) Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // Nothing left to clean up
+            }
+        }
+    }
+
+    private Path diskFile(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+            return diskDirectory.resolve(HexFormat.of().formatHex(hash) + ".png");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
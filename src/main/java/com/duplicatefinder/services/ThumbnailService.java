@@ -1,154 +1,144 @@
 // SimpleThumbnailService.java
 package com.duplicatefinder.services;
 
+import com.duplicatefinder.utils.ImageUtils;
 import javafx.concurrent.Task;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.paint.Color;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
 
 public class ThumbnailService {
     private static final int THUMBNAIL_SIZE = 40;
-    private static final long MAX_THUMBNAIL_SIZE = 10 * 1024 * 1024; // 10MB
+    private static final long MEMORY_CACHE_BYTES = 32L * 1024 * 1024; // 32MB of decoded pixels
 
     private final ExecutorService executorService;
-    private final Map<String, Image> thumbnailCache;
-    private final Map<String, Image> iconCache;
-
-    public ThumbnailService() {
-        this.executorService = Executors.newFixedThreadPool(4);
-        this.thumbnailCache = new HashMap<>();
-        this.iconCache = new HashMap<>();
-        loadDefaultIcons();
-    }
+    // Queued and running thumbnail tasks, so stale ones can be dropped all at once
+    private final Set<Task<ImageView>> pending = ConcurrentHashMap.newKeySet();
+    private final ThumbnailCache thumbnailCache;
+    private final FileIconService iconService;
 
-    private void loadDefaultIcons() {
-        // Create simple colored icons for different file types
-        createDefaultIcon("image", Color.web("#FF6B6B"), "IMG");
-        createDefaultIcon("audio", Color.web("#81C784"), "AUD");
-        createDefaultIcon("video", Color.web("#FFD54F"), "VID");
-        createDefaultIcon("pdf", Color.web("#F44336"), "PDF");
-        createDefaultIcon("document", Color.web("#2196F3"), "DOC");
-        createDefaultIcon("spreadsheet", Color.web("#4CAF50"), "XLS");
-        createDefaultIcon("archive", Color.web("#795548"), "ZIP");
-        createDefaultIcon("code", Color.web("#F57C00"), "CODE");
-        createDefaultIcon("file", Color.web("#78909C"), "FILE");
+    public ThumbnailService(FileIconService iconService) {
+        this(iconService, null);
     }
 
-    private void createDefaultIcon(String type, javafx.scene.paint.Color color, String text) {
-        // Create a simple icon using JavaFX Canvas
-        // In production, you'd use actual icon images
-        iconCache.put(type, createColoredIcon(color, text));
+    /**
+     * @param iconService   source of the placeholder icons for non-image files
+     * @param diskCacheDir  directory for persistent thumbnails, or null to keep them in memory only
+     */
+    public ThumbnailService(FileIconService iconService, Path diskCacheDir) {
+        this.iconService = iconService;
+        this.thumbnailCache = new ThumbnailCache(MEMORY_CACHE_BYTES, diskCacheDir);
+        this.executorService = Executors.newFixedThreadPool(4, r -> {
+            Thread thread = new Thread(r, "thumbnail-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
-    private Image createColoredIcon(javafx.scene.paint.Color color, String text) {
-        // Create a simple colored rectangle as icon
-        // This is a placeholder - in real app, use proper icons
-        int size = 32;
-        javafx.scene.canvas.Canvas canvas = new javafx.scene.canvas.Canvas(size, size);
-        javafx.scene.canvas.GraphicsContext gc = canvas.getGraphicsContext2D();
-
-        gc.setFill(color);
-        gc.fillRoundRect(2, 2, size - 4, size - 4, 6, 6);
-
-        gc.setFill(javafx.scene.paint.Color.WHITE);
-        gc.setFont(javafx.scene.text.Font.font("Arial", 10));
-        gc.fillText(text, size / 4, size / 1.5);
-
-        return canvas.snapshot(null, null);
+    /**
+     * Return the thumbnail if it is already in memory, without scheduling any work.
+     */
+    public Image getCachedThumbnail(Path filePath) {
+        String fileType = getFileType(filePath.getFileName().toString());
+        if (!fileType.equals("image")) {
+            return iconService.getIcon(fileType);
+        }
+        return thumbnailCache.get(filePath.toString());
     }
 
     public Task<ImageView> createThumbnailView(Path filePath) {
         Task<ImageView> task = new Task<>() {
             @Override
             protected ImageView call() throws Exception {
+                try {
+                    return loadThumbnail();
+                } finally {
+                    pending.remove(this);
+                }
+            }
+
+            // A task cancelled while still queued never gets to call()
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                pending.remove(this);
+                return cancelled;
+            }
+
+            private ImageView loadThumbnail() {
+                if (isCancelled()) return null;
                 String fileName = filePath.getFileName().toString();
                 String cacheKey = filePath.toString();
+                String fileType = getFileType(fileName);
+
+                // Non-image files only ever get their type icon
+                if (!fileType.equals("image")) {
+                    return createImageView(iconService.getIcon(fileType));
+                }
 
                 // Check cache first
-                if (thumbnailCache.containsKey(cacheKey)) {
-                    return createImageView(thumbnailCache.get(cacheKey));
+                Image cached = thumbnailCache.get(cacheKey);
+                if (cached != null) {
+                    return createImageView(cached);
                 }
 
                 try {
-                    // Check if file is image
-                    String mimeType = Files.probeContentType(filePath);
-                    long fileSize = Files.size(filePath);
-
-                    boolean isImage = mimeType != null && mimeType.startsWith("image/");
-                    boolean canLoadThumbnail = isImage && fileSize <= MAX_THUMBNAIL_SIZE;
-
-                    if (canLoadThumbnail) {
-                        Image thumbnail = generateImageThumbnail(filePath);
-                        thumbnailCache.put(cacheKey, thumbnail);
-                        return createImageView(thumbnail);
-                    } else {
-                        // Use file type icon
-                        String fileType = getFileType(fileName);
-                        Image icon = iconCache.getOrDefault(fileType, iconCache.get("file"));
-                        thumbnailCache.put(cacheKey, icon);
-                        return createImageView(icon);
+                    // No size limit needed: decoding is subsampled, so memory
+                    // depends on the thumbnail size rather than the image size
+                    BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+
+                    // The disk key includes size and mtime so edited files are regenerated
+                    String diskKey = cacheKey + "|" + attrs.size() + "|" + attrs.lastModifiedTime().toMillis();
+                    BufferedImage thumbnail = thumbnailCache.readFromDisk(diskKey);
+                    if (thumbnail == null) {
+                        // Cell scrolled away before we got to it
+                        if (isCancelled()) return null;
+                        thumbnail = generateImageThumbnail(filePath, this::isCancelled);
+                        // An aborted decode must not be cached as "not an image"
+                        if (isCancelled()) return null;
+                        if (thumbnail == null) {
+                            Image icon = iconService.getIcon(fileType);
+                            thumbnailCache.put(cacheKey, icon);
+                            return createImageView(icon);
+                        }
+                        thumbnailCache.writeToDisk(diskKey, thumbnail);
                     }
+
+                    Image image = ImageUtils.toFxImage(thumbnail);
+                    thumbnailCache.put(cacheKey, image);
+                    return createImageView(image);
                 } catch (Exception e) {
                     // Use default icon on error
-                    Image defaultIcon = iconCache.get("file");
+                    Image defaultIcon = iconService.getIcon("file");
                     thumbnailCache.put(cacheKey, defaultIcon);
                     return createImageView(defaultIcon);
                 }
             }
         };
 
+        pending.add(task);
         executorService.submit(task);
         return task;
     }
 
-    private Image generateImageThumbnail(Path filePath) throws Exception {
-        BufferedImage originalImage = ImageIO.read(filePath.toFile());
-        if (originalImage == null) {
-            return iconCache.get("file");
+    private BufferedImage generateImageThumbnail(Path filePath, BooleanSupplier cancelled) throws Exception {
+        BufferedImage sourceImage = ImageUtils.decodeForSize(filePath, THUMBNAIL_SIZE, cancelled);
+        if (sourceImage == null) {
+            return null;
         }
-
-        // Calculate scaling
-        double scale = Math.min(
-                (double) THUMBNAIL_SIZE / originalImage.getWidth(),
-                (double) THUMBNAIL_SIZE / originalImage.getHeight()
-        );
-
-        int scaledWidth = (int) (originalImage.getWidth() * scale);
-        int scaledHeight = (int) (originalImage.getHeight() * scale);
-
-        java.awt.Image scaledImage = originalImage.getScaledInstance(
-                scaledWidth, scaledHeight, java.awt.Image.SCALE_SMOOTH
-        );
-
-        BufferedImage outputImage = new BufferedImage(
-                THUMBNAIL_SIZE, THUMBNAIL_SIZE, BufferedImage.TYPE_INT_ARGB
-        );
-
-        int x = (THUMBNAIL_SIZE - scaledWidth) / 2;
-        int y = (THUMBNAIL_SIZE - scaledHeight) / 2;
-
-        outputImage.getGraphics().drawImage(scaledImage, x, y, scaledWidth, scaledHeight, null);
-
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(outputImage, "png", baos);
-        InputStream is = new ByteArrayInputStream(baos.toByteArray());
-
-        return new Image(is, THUMBNAIL_SIZE, THUMBNAIL_SIZE, true, true);
+        return ImageUtils.scaleToFit(sourceImage, THUMBNAIL_SIZE);
     }
 
-    private ImageView createImageView(Image image) {
+    public ImageView createImageView(Image image) {
         ImageView imageView = new ImageView(image);
         imageView.setFitWidth(THUMBNAIL_SIZE);
         imageView.setFitHeight(THUMBNAIL_SIZE);
@@ -157,7 +147,7 @@ public class ThumbnailService {
         return imageView;
     }
 
-    private String getFileType(String fileName) {
+    public static String getFileType(String fileName) {
         String extension = getFileExtension(fileName).toLowerCase();
 
         if (extension.matches("jpg|jpeg|png|gif|bmp|webp")) {
@@ -181,9 +171,28 @@ public class ThumbnailService {
         }
     }
 
-    private String getFileExtension(String fileName) {
+    private static String getFileExtension(String fileName) {
         int dotIndex = fileName.lastIndexOf('.');
         return (dotIndex == -1) ? "" : fileName.substring(dotIndex + 1);
     }
 
-}
\ No newline at end of file
+    /**
+     * Cancel every queued or running thumbnail, e.g. when the results they were for are cleared.
+     * Running decodes stop at their next progress callback.
+     */
+    public void cancelPending() {
+        for (Task<ImageView> task : pending) {
+            task.cancel(true);
+        }
+        pending.clear();
+    }
+
+    public void clearCache() {
+        thumbnailCache.clear();
+    }
+
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+
+}
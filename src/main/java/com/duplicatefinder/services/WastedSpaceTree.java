@@ -0,0 +1,131 @@
+package com.duplicatefinder.services;
+
+import com.duplicatefinder.models.ArchiveEntryFile;
+import com.duplicatefinder.models.DirectoryGroup;
+import com.duplicatefinder.models.DuplicateGroup;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wasted bytes and duplicate counts per directory, rolled up to every
+ * ancestor as groups are added, so "which folders hold the most duplicated
+ * bytes" never needs a pass over the results.
+ *
+ * A group's wasted bytes are shared evenly between its copies (any
+ * remainder goes to the first), so a directory's figure is its part of the
+ * waste and the root holds exactly the total. Only exact copies count.
+ * Each node stores just its own name segment, and leaf directories have no
+ * child map.
+ *
+ * Groups may be added from scanning threads while the UI reads the tree.
+ */
+public class WastedSpaceTree {
+
+    private static final Comparator<Node> MOST_WASTED_FIRST =
+            Comparator.comparingLong(Node::getWastedBytes).reversed().thenComparing(Node::getName);
+
+    public static class Node {
+        private final String name;
+        private final Node parent;
+        private Map<String, Node> children;
+        private volatile long wastedBytes;
+        private volatile long duplicateFiles;
+
+        Node(String name, Node parent) {
+            this.name = name;
+            this.parent = parent;
+        }
+
+        public String getName() { return name; }
+        public Node getParent() { return parent; }
+        public long getWastedBytes() { return wastedBytes; }
+        /** Duplicate files at or below this directory */
+        public long getDuplicateFiles() { return duplicateFiles; }
+
+        /**
+         * @return the full directory path, built from the name segments
+         */
+        public String getPath() {
+            if (parent == null) return name;
+            String parentPath = parent.getPath();
+            if (parentPath.isEmpty() || parentPath.endsWith(File.separator)) return parentPath + name;
+            return parentPath + File.separator + name;
+        }
+    }
+
+    private final Node root = new Node("", null);
+
+    /** The unnamed node above the filesystem roots; it holds the totals */
+    public Node getRoot() { return root; }
+
+    public long getWastedBytes() { return root.wastedBytes; }
+
+    public void addAll(Iterable<DuplicateGroup> groups) {
+        for (DuplicateGroup group : groups) {
+            add(group);
+        }
+    }
+
+    public synchronized void add(DuplicateGroup group) {
+        List<File> files = group.getFiles();
+        if (!group.isExactCopy() || files.size() < 2) return;
+
+        int copies = files.size();
+        long wasted = group.getWastedSize();
+        long share = wasted / copies;
+        long remainder = wasted - share * copies;
+        long filesPerCopy = group instanceof DirectoryGroup ? ((DirectoryGroup) group).getFilesPerDirectory() : 1;
+        for (int i = 0; i < copies; i++) {
+            Node node = directoryOf(files.get(i), group instanceof DirectoryGroup);
+            long bytes = i == 0 ? share + remainder : share;
+            for (; node != null; node = node.parent) {
+                node.wastedBytes += bytes;
+                node.duplicateFiles += filesPerCopy;
+            }
+        }
+    }
+
+    /**
+     * @return the subdirectories that hold any waste, most wasted first
+     */
+    public synchronized List<Node> children(Node node) {
+        if (node.children == null) return List.of();
+        List<Node> sorted = new ArrayList<>(node.children.values());
+        sorted.sort(MOST_WASTED_FIRST);
+        return sorted;
+    }
+
+    public synchronized boolean hasChildren(Node node) {
+        return node.children != null;
+    }
+
+    /**
+     * Archive entries count toward the archive's directory; a duplicate
+     * directory counts toward itself.
+     */
+    private Node directoryOf(File file, boolean isDirectory) {
+        if (file instanceof ArchiveEntryFile) file = ((ArchiveEntryFile) file).getArchive();
+        Path path = file.toPath().toAbsolutePath();
+        Path directory = isDirectory ? path : path.getParent();
+        if (directory == null) return root;
+
+        Node node = root;
+        Path fsRoot = directory.getRoot();
+        if (fsRoot != null) node = child(node, fsRoot.toString());
+        for (Path segment : directory) {
+            node = child(node, segment.toString());
+        }
+        return node;
+    }
+
+    private static Node child(Node parent, String name) {
+        if (parent.children == null) parent.children = new HashMap<>(4);
+        return parent.children.computeIfAbsent(name, n -> new Node(n, parent));
+    }
+}
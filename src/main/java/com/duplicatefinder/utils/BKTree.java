@@ -0,0 +1,86 @@
+package com.duplicatefinder.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Burkhard-Keller tree over 64-bit hashes using Hamming distance.
+ * Range queries only visit subtrees that can contain a match (triangle
+ * inequality), so finding near neighbours avoids comparing every pair.
+ */
+public class BKTree<T> {
+
+    private Node<T> root;
+    private int size;
+
+    public void add(long hash, T value) {
+        size++;
+        if (root == null) {
+            root = new Node<>(hash, value);
+            return;
+        }
+
+        Node<T> node = root;
+        while (true) {
+            int distance = distance(node.hash, hash);
+            if (distance == 0) {
+                node.values.add(value);
+                return;
+            }
+            Node<T> child = node.children.get(distance);
+            if (child == null) {
+                node.children.put(distance, new Node<>(hash, value));
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Visit every value whose hash is within maxDistance of the given hash.
+     */
+    public void search(long hash, int maxDistance, Consumer<T> consumer) {
+        if (root == null) return;
+
+        List<Node<T>> pending = new ArrayList<>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            Node<T> node = pending.remove(pending.size() - 1);
+            int distance = distance(node.hash, hash);
+            if (distance <= maxDistance) {
+                node.values.forEach(consumer);
+            }
+
+            int low = distance - maxDistance;
+            int high = distance + maxDistance;
+            for (Map.Entry<Integer, Node<T>> child : node.children.entrySet()) {
+                int d = child.getKey();
+                if (d >= low && d <= high) {
+                    pending.add(child.getValue());
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    private static class Node<T> {
+        final long hash;
+        final List<T> values = new ArrayList<>(1);
+        final Map<Integer, Node<T>> children = new HashMap<>(4);
+
+        Node(long hash, T value) {
+            this.hash = hash;
+            values.add(value);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.duplicatefinder.utils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Extracts the small JPEG preview that cameras embed in the EXIF (APP1)
+ * segment, so thumbnails of large photos can be built without decoding
+ * the main image at all.
+ */
+public class ExifThumbnailReader {
+
+    // APP1 is at most 64KB and normally directly follows SOI (and maybe APP0)
+    private static final int HEADER_BYTES = 128 * 1024;
+
+    private static final int TAG_JPEG_OFFSET = 0x0201;
+    private static final int TAG_JPEG_LENGTH = 0x0202;
+
+    /**
+     * @return the embedded thumbnail, or null if the file has none
+     */
+    public static BufferedImage readThumbnail(Path file) {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] header = in.readNBytes(HEADER_BYTES);
+            byte[] jpeg = findThumbnailBytes(header);
+            if (jpeg == null) return null;
+            return ImageIO.read(new ByteArrayInputStream(jpeg));
+        } catch (IOException | RuntimeException e) {
+            // Corrupt or truncated EXIF, let the caller decode the image itself
+            return null;
+        }
+    }
+
+    static byte[] findThumbnailBytes(byte[] data) {
+        // JPEG SOI
+        if (data.length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != 0xD8) return null;
+
+        int pos = 2;
+        while (pos + 4 <= data.length) {
+            if ((data[pos] & 0xFF) != 0xFF) return null;
+            int marker = data[pos + 1] & 0xFF;
+            // Start of scan, no more metadata segments
+            if (marker == 0xDA || marker == 0xD9) return null;
+
+            int length = ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+            int segmentStart = pos + 4;
+            int segmentEnd = pos + 2 + length;
+            if (segmentEnd > data.length) return null;
+
+            if (marker == 0xE1 && length > 8 && isExifHeader(data, segmentStart)) {
+                return parseTiff(data, segmentStart + 6, segmentEnd);
+            }
+            pos = segmentEnd;
+        }
+        return null;
+    }
+
+    private static boolean isExifHeader(byte[] data, int offset) {
+        return data[offset] == 'E' && data[offset + 1] == 'x' && data[offset + 2] == 'i'
+                && data[offset + 3] == 'f' && data[offset + 4] == 0 && data[offset + 5] == 0;
+    }
+
+    private static byte[] parseTiff(byte[] data, int tiffStart, int tiffEnd) {
+        ByteBuffer tiff = ByteBuffer.wrap(data, tiffStart, tiffEnd - tiffStart).slice();
+        if (tiff.remaining() < 8) return null;
+
+        if (tiff.get(0) == 'I' && tiff.get(1) == 'I') {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (tiff.get(0) == 'M' && tiff.get(1) == 'M') {
+            tiff.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            return null;
+        }
+
+        // IFD0 describes the main image, IFD1 the thumbnail
+        int ifd0 = tiff.getInt(4);
+        int ifd1 = nextIfdOffset(tiff, ifd0);
+        if (ifd1 <= 0 || ifd1 + 2 > tiff.limit()) return null;
+
+        int entries = tiff.getShort(ifd1) & 0xFFFF;
+        int jpegOffset = -1;
+        int jpegLength = -1;
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd1 + 2 + i * 12;
+            if (entry + 12 > tiff.limit()) return null;
+            int tag = tiff.getShort(entry) & 0xFFFF;
+            if (tag == TAG_JPEG_OFFSET) {
+                jpegOffset = tiff.getInt(entry + 8);
+            } else if (tag == TAG_JPEG_LENGTH) {
+                jpegLength = tiff.getInt(entry + 8);
+            }
+        }
+
+        if (jpegOffset <= 0 || jpegLength <= 0 || jpegOffset + jpegLength > tiff.limit()) return null;
+
+        byte[] jpeg = new byte[jpegLength];
+        tiff.get(jpegOffset, jpeg);
+        return jpeg;
+    }
+
+    private static int nextIfdOffset(ByteBuffer tiff, int ifdOffset) {
+        if (ifdOffset <= 0 || ifdOffset + 2 > tiff.limit()) return -1;
+        int entries = tiff.getShort(ifdOffset) & 0xFFFF;
+        int next = ifdOffset + 2 + entries * 12;
+        if (next + 4 > tiff.limit()) return -1;
+        return tiff.getInt(next);
+    }
+}
@@ -0,0 +1,220 @@
+package com.duplicatefinder.utils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * External merge sort for fixed-width records made of longs.
+ * Records are buffered up to a fixed count, sorted and spilled to run files,
+ * then read back through a streaming k-way merge. Memory use is bounded by
+ * the buffer size no matter how many records are added.
+ * Records compare lexicographically on their first keyWidth longs.
+ */
+public class ExternalLongSorter implements Closeable {
+
+    private static final int IO_BUFFER = 256 * 1024;
+
+    private final int recordWidth;
+    private final int keyWidth;
+    private final int maxRecordsInMemory;
+    private final Path tempDirectory;
+    private final List<Path> runFiles = new ArrayList<>();
+
+    private long[] buffer;
+    private int bufferedRecords;
+    private long totalRecords;
+
+    public ExternalLongSorter(int recordWidth, int keyWidth, int maxRecordsInMemory, Path tempDirectory) {
+        if (keyWidth < 1 || keyWidth > recordWidth) {
+            throw new IllegalArgumentException("keyWidth must be between 1 and recordWidth");
+        }
+        this.recordWidth = recordWidth;
+        this.keyWidth = keyWidth;
+        this.maxRecordsInMemory = maxRecordsInMemory;
+        this.tempDirectory = tempDirectory;
+        this.buffer = new long[recordWidth * Math.min(maxRecordsInMemory, 1024)];
+    }
+
+    public synchronized void add(long... record) throws IOException {
+        if (record.length != recordWidth) {
+            throw new IllegalArgumentException("Expected " + recordWidth + " longs, got " + record.length);
+        }
+        if (bufferedRecords == maxRecordsInMemory) {
+            spill();
+        }
+        int offset = bufferedRecords * recordWidth;
+        if (offset + recordWidth > buffer.length) {
+            // Grow gradually up to the budget so small inputs stay small
+            long[] grown = new long[Math.min(buffer.length * 2, maxRecordsInMemory * recordWidth)];
+            System.arraycopy(buffer, 0, grown, 0, offset);
+            buffer = grown;
+        }
+        System.arraycopy(record, 0, buffer, offset, recordWidth);
+        bufferedRecords++;
+        totalRecords++;
+    }
+
+    public synchronized long size() {
+        return totalRecords;
+    }
+
+    public int getRecordWidth() {
+        return recordWidth;
+    }
+
+    /**
+     * Sort whatever is left in memory and return a merged, sorted view of all
+     * records. No more records can be added afterwards.
+     */
+    public synchronized MergeIterator sortedIterator() throws IOException {
+        if (bufferedRecords > 0) {
+            spill();
+        }
+        buffer = null;
+        return new MergeIterator(runFiles, recordWidth, keyWidth);
+    }
+
+    private void spill() throws IOException {
+        int[] order = new int[bufferedRecords];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        sortIndexes(order, 0, order.length - 1);
+
+        Path run = Files.createTempFile(tempDirectory, "run", ".bin");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(run), IO_BUFFER))) {
+            for (int index : order) {
+                int offset = index * recordWidth;
+                for (int i = 0; i < recordWidth; i++) {
+                    out.writeLong(buffer[offset + i]);
+                }
+            }
+        }
+        runFiles.add(run);
+        bufferedRecords = 0;
+    }
+
+    // Quicksort over record indexes, so the long data itself is never moved
+    private void sortIndexes(int[] order, int low, int high) {
+        while (low < high) {
+            int pivot = order[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (compareBuffered(order[i], pivot) < 0) i++;
+                while (compareBuffered(order[j], pivot) > 0) j--;
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse into the smaller half to bound stack depth
+            if (j - low < high - i) {
+                sortIndexes(order, low, j);
+                low = i;
+            } else {
+                sortIndexes(order, i, high);
+                high = j;
+            }
+        }
+    }
+
+    private int compareBuffered(int a, int b) {
+        int offsetA = a * recordWidth;
+        int offsetB = b * recordWidth;
+        for (int i = 0; i < keyWidth; i++) {
+            int c = Long.compare(buffer[offsetA + i], buffer[offsetB + i]);
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Path run : runFiles) {
+            Files.deleteIfExists(run);
+        }
+        runFiles.clear();
+        buffer = null;
+    }
+
+    /**
+     * Streaming k-way merge over the sorted run files.
+     */
+    public static class MergeIterator implements Closeable {
+        private final int recordWidth;
+        private final int keyWidth;
+        private final PriorityQueue<RunReader> heap;
+        private final List<RunReader> readers = new ArrayList<>();
+
+        MergeIterator(List<Path> runs, int recordWidth, int keyWidth) throws IOException {
+            this.recordWidth = recordWidth;
+            this.keyWidth = keyWidth;
+            this.heap = new PriorityQueue<>(Math.max(1, runs.size()), this::compareHeads);
+            for (Path run : runs) {
+                RunReader reader = new RunReader(run, recordWidth);
+                readers.add(reader);
+                if (reader.advance()) {
+                    heap.add(reader);
+                }
+            }
+        }
+
+        /**
+         * Copy the next record into target.
+         *
+         * @return false once every run is exhausted
+         */
+        public boolean next(long[] target) throws IOException {
+            RunReader smallest = heap.poll();
+            if (smallest == null) return false;
+            System.arraycopy(smallest.head, 0, target, 0, recordWidth);
+            if (smallest.advance()) {
+                heap.add(smallest);
+            }
+            return true;
+        }
+
+        private int compareHeads(RunReader a, RunReader b) {
+            for (int i = 0; i < keyWidth; i++) {
+                int c = Long.compare(a.head[i], b.head[i]);
+                if (c != 0) return c;
+            }
+            return 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (RunReader reader : readers) {
+                reader.in.close();
+            }
+        }
+    }
+
+    private static class RunReader {
+        final DataInputStream in;
+        final long[] head;
+
+        RunReader(Path run, int recordWidth) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), IO_BUFFER));
+            this.head = new long[recordWidth];
+        }
+
+        boolean advance() throws IOException {
+            try {
+                for (int i = 0; i < head.length; i++) {
+                    head[i] = in.readLong();
+                }
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.duplicatefinder.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.SplittableRandom;
+
+/**
+ * Content-defined chunking with the FastCDC gear hash.
+ * Chunk boundaries depend only on nearby bytes, so an insertion or deletion
+ * in one place of a file does not shift every later chunk; two files that
+ * share most of their content end up sharing most of their chunks.
+ * Input is streamed through a fixed buffer, so any file size uses the same memory.
+ * Instances own that buffer and are not thread-safe; use one per worker thread.
+ */
+public class FastCdcChunker {
+
+    public interface ChunkListener {
+        /**
+         * @param digestHigh first 8 bytes of the chunk's SHA-1
+         * @param digestLow  next 8 bytes of the chunk's SHA-1
+         */
+        void onChunk(long offset, int length, long digestHigh, long digestLow) throws IOException;
+    }
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Fixed seed: boundaries must be identical across runs and machines
+        SplittableRandom random = new SplittableRandom(0x5DEECE66DL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+    private final long maskSmall;
+    private final long maskLarge;
+    private final byte[] buffer;
+
+    public FastCdcChunker(int minSize, int avgSize, int maxSize, int bufferSize) {
+        if (Integer.bitCount(avgSize) != 1) {
+            throw new IllegalArgumentException("Average chunk size must be a power of two");
+        }
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+
+        // Normalized chunking: harder to cut before the average size, easier after it.
+        // The gear hash shifts left, so the top bits depend on the most bytes.
+        int bits = Integer.numberOfTrailingZeros(avgSize);
+        this.maskSmall = topBits(bits + 2);
+        this.maskLarge = topBits(bits - 2);
+        this.buffer = new byte[bufferSize];
+    }
+
+    private static long topBits(int count) {
+        return count <= 0 ? 0 : -1L << (64 - count);
+    }
+
+    public int getAverageSize() {
+        return avgSize;
+    }
+
+    /**
+     * Split the stream into chunks, reporting each one in order.
+     *
+     * @return total number of bytes read
+     */
+    public long chunk(InputStream in, ChunkListener listener) throws IOException {
+        MessageDigest digest = newDigest();
+        long fileOffset = 0;
+        long chunkStart = 0;
+        int chunkLength = 0;
+        long fingerprint = 0;
+
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            int segmentStart = 0;
+            for (int i = 0; i < read; i++) {
+                chunkLength++;
+                // Cut points are never taken below the minimum, so skip hashing there
+                if (chunkLength <= minSize) continue;
+
+                fingerprint = (fingerprint << 1) + GEAR[buffer[i] & 0xFF];
+                long mask = chunkLength < avgSize ? maskSmall : maskLarge;
+
+                if ((fingerprint & mask) == 0 || chunkLength >= maxSize) {
+                    digest.update(buffer, segmentStart, i + 1 - segmentStart);
+                    emit(listener, digest, chunkStart, chunkLength);
+                    segmentStart = i + 1;
+                    chunkStart += chunkLength;
+                    chunkLength = 0;
+                    fingerprint = 0;
+                }
+            }
+            digest.update(buffer, segmentStart, read - segmentStart);
+            fileOffset += read;
+        }
+
+        if (chunkLength > 0) {
+            emit(listener, digest, chunkStart, chunkLength);
+        }
+        return fileOffset;
+    }
+
+    private void emit(ChunkListener listener, MessageDigest digest, long offset, int length) throws IOException {
+        ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+        listener.onChunk(offset, length, hash.getLong(0), hash.getLong(8));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -2,9 +2,13 @@ package com.duplicatefinder.utils;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class FileUtils {
 
@@ -12,7 +16,9 @@ public class FileUtils {
         long freedSpace = 0;
         for (Path path : paths) {
             try {
-                if (Files.exists(path)) {
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    freedSpace += deleteDirectory(path);
+                } else if (Files.exists(path)) {
                     long size = Files.size(path);
                     if (Files.deleteIfExists(path)) {
                         freedSpace += size;
@@ -25,4 +31,22 @@ public class FileUtils {
         return freedSpace;
     }
 
+    /**
+     * Delete a directory tree, deepest entries first.
+     */
+    private static long deleteDirectory(Path directory) throws IOException {
+        List<Path> entries;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            entries = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        long freedSpace = 0;
+        for (Path entry : entries) {
+            long size = Files.isRegularFile(entry, LinkOption.NOFOLLOW_LINKS) ? Files.size(entry) : 0;
+            if (Files.deleteIfExists(entry)) {
+                freedSpace += size;
+            }
+        }
+        return freedSpace;
+    }
+
 }
\ No newline at end of file
@@ -9,6 +9,32 @@ public class FormatUtils {
         return String.format("%.1f GB", bytes / (1024.0 * 1024.0 * 1024.0));
     }
 
+    /**
+     * Parse a size such as "4096", "64k", "10M" or "2g" (powers of 1024).
+     *
+     * @throws IllegalArgumentException if the text is not a size
+     */
+    public static long parseFileSize(String text) {
+        String value = text.trim().toLowerCase();
+        if (value.endsWith("b")) value = value.substring(0, value.length() - 1);
+        long multiplier = 1;
+        if (!value.isEmpty()) {
+            switch (value.charAt(value.length() - 1)) {
+                case 'k': multiplier = 1024L; break;
+                case 'm': multiplier = 1024L * 1024; break;
+                case 'g': multiplier = 1024L * 1024 * 1024; break;
+                case 't': multiplier = 1024L * 1024 * 1024 * 1024; break;
+                default: break;
+            }
+            if (multiplier != 1) value = value.substring(0, value.length() - 1).trim();
+        }
+        try {
+            return (long) (Double.parseDouble(value) * multiplier);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a size: " + text);
+        }
+    }
+
     public static String formatHash(String hash) {
         if (hash.length() > 50) {
             return hash.substring(0, 8) + "...";
@@ -0,0 +1,77 @@
+package com.duplicatefinder.utils;
+
+/**
+ * Groups indexes by equal long keys without boxing or maps: the indexes are
+ * sorted by key and every run of equal keys is one group.
+ */
+public class HashGroups {
+
+    public interface GroupConsumer {
+        /**
+         * @param order indexes sorted by key; the group is order[from, to)
+         */
+        void accept(int[] order, int from, int to);
+    }
+
+    private static final int INSERTION_SORT_LIMIT = 16;
+
+    /**
+     * Call the consumer for each set of two or more indexes sharing a key.
+     *
+     * @param skip keys equal to this value (e.g. "unreadable") are never grouped
+     */
+    public static void forEachGroup(long[] keys, long skip, GroupConsumer consumer) {
+        int[] order = new int[keys.length];
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != skip) order[count++] = i;
+        }
+        sort(order, 0, count - 1, keys);
+
+        int start = 0;
+        for (int i = 1; i <= count; i++) {
+            if (i == count || keys[order[i]] != keys[order[start]]) {
+                if (i - start > 1) consumer.accept(order, start, i);
+                start = i;
+            }
+        }
+    }
+
+    private static void sort(int[] order, int low, int high, long[] keys) {
+        while (high - low >= INSERTION_SORT_LIMIT) {
+            long pivot = keys[order[(low + high) >>> 1]];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (keys[order[i]] < pivot) i++;
+                while (keys[order[j]] > pivot) j--;
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse into the smaller half to bound stack depth
+            if (j - low < high - i) {
+                sort(order, low, j, keys);
+                low = i;
+            } else {
+                sort(order, i, high, keys);
+                high = j;
+            }
+        }
+        // Size groups are usually a handful of files
+        for (int i = low + 1; i <= high; i++) {
+            int index = order[i];
+            long key = keys[index];
+            int j = i - 1;
+            while (j >= low && keys[order[j]] > key) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = index;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.duplicatefinder.utils;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.function.BooleanSupplier;
+
+public class ImageUtils {
+
+    /**
+     * Decode an image at roughly the requested size.
+     * Uses the embedded EXIF preview when it is large enough, otherwise a
+     * subsampled decode of the image.
+     *
+     * @return the decoded image, or null if the format is not supported
+     */
+    public static BufferedImage decodeForSize(Path file, int targetSize) throws IOException {
+        return decodeForSize(file, targetSize, () -> false);
+    }
+
+    /**
+     * @param cancelled checked while decoding; once true the decode is aborted and null returned
+     */
+    public static BufferedImage decodeForSize(Path file, int targetSize, BooleanSupplier cancelled) throws IOException {
+        BufferedImage exif = ExifThumbnailReader.readThumbnail(file);
+        if (exif != null && Math.min(exif.getWidth(), exif.getHeight()) >= targetSize) {
+            return exif;
+        }
+        if (cancelled.getAsBoolean()) return null;
+        return readSubsampled(file, targetSize, cancelled);
+    }
+
+    /**
+     * Decode only every Nth pixel so the decoded image is at most about twice
+     * the target size, instead of decoding the full image and scaling it down.
+     */
+    public static BufferedImage readSubsampled(Path file, int targetSize) throws IOException {
+        return readSubsampled(file, targetSize, () -> false);
+    }
+
+    /**
+     * @param cancelled polled as rows are decoded; once true the reader is aborted and null returned
+     */
+    public static BufferedImage readSubsampled(Path file, int targetSize, BooleanSupplier cancelled) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file.toFile())) {
+            if (input == null) return null;
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) return null;
+
+            ImageReader reader = readers.next();
+            try {
+                // Metadata is never needed here, skipping it avoids parsing every APPn segment
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+
+                int step = Math.max(1, Math.min(width, height) / (targetSize * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                reader.addIIOReadProgressListener(new AbortWhenCancelled(cancelled));
+                BufferedImage image = reader.read(0, param);
+                // An aborted read returns whatever was decoded so far
+                return cancelled.getAsBoolean() ? null : image;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Scale an image into a size x size ARGB square, keeping its aspect ratio.
+     */
+    public static BufferedImage scaleToFit(BufferedImage source, int size) {
+        double scale = Math.min(
+                (double) size / source.getWidth(),
+                (double) size / source.getHeight()
+        );
+
+        int scaledWidth = Math.max(1, (int) (source.getWidth() * scale));
+        int scaledHeight = Math.max(1, (int) (source.getHeight() * scale));
+
+        BufferedImage output = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+
+        int x = (size - scaledWidth) / 2;
+        int y = (size - scaledHeight) / 2;
+
+        // The source is already close to the target size, so bilinear is enough
+        Graphics2D g = output.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(source, x, y, scaledWidth, scaledHeight, null);
+        g.dispose();
+
+        return output;
+    }
+
+    /**
+     * Copy the pixels straight into a JavaFX image, without encoding to PNG and back.
+     */
+    public static WritableImage toFxImage(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        int[] pixels;
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt buffer) {
+            // Already in the layout JavaFX wants, no conversion needed
+            pixels = buffer.getData();
+        } else {
+            pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        }
+
+        WritableImage fxImage = new WritableImage(width, height);
+        fxImage.getPixelWriter().setPixels(0, 0, width, height,
+                PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        return fxImage;
+    }
+
+    /**
+     * Aborts a read from the reader's own progress callbacks, which come
+     * every few rows, so a cancelled decode stops without finishing the image.
+     */
+    private static class AbortWhenCancelled implements IIOReadProgressListener {
+        private final BooleanSupplier cancelled;
+
+        AbortWhenCancelled(BooleanSupplier cancelled) {
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+            if (cancelled.getAsBoolean()) source.abort();
+        }
+
+        @Override public void sequenceStarted(ImageReader source, int minIndex) { }
+        @Override public void sequenceComplete(ImageReader source) { }
+        @Override public void imageStarted(ImageReader source, int imageIndex) { }
+        @Override public void imageComplete(ImageReader source) { }
+        @Override public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) { }
+        @Override public void thumbnailProgress(ImageReader source, float percentageDone) { }
+        @Override public void thumbnailComplete(ImageReader source) { }
+        @Override public void readAborted(ImageReader source) { }
+    }
+}
@@ -0,0 +1,237 @@
+package com.duplicatefinder.utils;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Include/exclude rules for the directory walkers, compiled once per scan.
+ *
+ * Patterns are globs by default, or "regex:..." for a regular expression.
+ * A pattern (glob or regex) without a '/' is matched against the entry's
+ * name, one with a '/' against its full path. A trailing '/' limits a pattern to directories.
+ * Exclusions apply to directories and files; inclusions only to files, and
+ * when any are given a file must match one of them.
+ *
+ * Plain names, "prefix*" and "*suffix" globs (the common cases) are looked
+ * up in a hash set and two character tries; only the remaining patterns go
+ * through a {@link PathMatcher}. Size and age limits are checked before
+ * anything else, so most rejected files cost no allocation at all.
+ */
+public class PathFilter {
+
+    /** The directories every scan skipped before rules were configurable */
+    public static final List<String> DEFAULT_EXCLUDES =
+            List.of(".*/", "node_modules/", "target/", "bin/", "obj/", "$*/");
+
+    private final RuleSet excludeAll = new RuleSet();
+    private final RuleSet excludeDirectories = new RuleSet();
+    private final RuleSet includeFiles = new RuleSet();
+
+    private long minSize = 0;
+    private long maxSize = Long.MAX_VALUE;
+    private long modifiedAfter = Long.MIN_VALUE;
+    private long modifiedBefore = Long.MAX_VALUE;
+
+    /**
+     * @throws IllegalArgumentException if a pattern is not a valid glob or regex
+     */
+    public PathFilter(List<String> includes, List<String> excludes) {
+        for (String pattern : excludes) {
+            if (pattern.isBlank()) continue;
+            if (pattern.endsWith("/") && pattern.length() > 1) {
+                excludeDirectories.add(pattern.substring(0, pattern.length() - 1));
+            } else {
+                excludeAll.add(pattern);
+            }
+        }
+        for (String pattern : includes) {
+            if (pattern.isBlank()) continue;
+            if (pattern.endsWith("/")) {
+                throw new IllegalArgumentException("Include patterns apply to files only: " + pattern);
+            }
+            includeFiles.add(pattern);
+        }
+    }
+
+    public static PathFilter defaults() {
+        return new PathFilter(List.of(), DEFAULT_EXCLUDES);
+    }
+
+    /**
+     * Split a comma-separated pattern list as typed in the UI.
+     */
+    public static List<String> splitPatterns(String text) {
+        List<String> patterns = new ArrayList<>();
+        for (String part : text.split(",")) {
+            if (!part.isBlank()) patterns.add(part.trim());
+        }
+        return patterns;
+    }
+
+    /** Only files with minSize <= size <= maxSize are scanned */
+    public void setSizeRange(long minSize, long maxSize) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    /** Only files last modified within [after, before] (epoch millis) are scanned */
+    public void setModifiedRange(long after, long before) {
+        this.modifiedAfter = after;
+        this.modifiedBefore = before;
+    }
+
+    public long getMinSize() { return minSize; }
+    public long getMaxSize() { return maxSize; }
+
+    /**
+     * @return false if the walker should skip this directory's subtree
+     */
+    public boolean acceptDirectory(Path dir) {
+        if (excludeAll.isEmpty() && excludeDirectories.isEmpty()) return true;
+        Path name = dir.getFileName();
+        // Filesystem roots have no name and are never excluded
+        if (name == null) return true;
+        String nameText = name.toString();
+        return !excludeDirectories.matches(dir, nameText) && !excludeAll.matches(dir, nameText);
+    }
+
+    public boolean acceptFile(Path file, BasicFileAttributes attrs) {
+        long size = attrs.size();
+        if (size < minSize || size > maxSize) return false;
+        if (modifiedAfter != Long.MIN_VALUE || modifiedBefore != Long.MAX_VALUE) {
+            long modified = attrs.lastModifiedTime().toMillis();
+            if (modified < modifiedAfter || modified > modifiedBefore) return false;
+        }
+        if (excludeAll.isEmpty() && includeFiles.isEmpty()) return true;
+
+        String name = file.getFileName().toString();
+        if (excludeAll.matches(file, name)) return false;
+        return includeFiles.isEmpty() || includeFiles.matches(file, name);
+    }
+
+    /**
+     * One compiled group of patterns, split by how cheaply each can be matched.
+     */
+    private static class RuleSet {
+        private final Set<String> names = new HashSet<>();
+        private final CharTrie prefixes = new CharTrie(false);
+        private final CharTrie suffixes = new CharTrie(true);
+        private final List<PathMatcher> nameMatchers = new ArrayList<>();
+        private final List<PathMatcher> pathMatchers = new ArrayList<>();
+        private boolean empty = true;
+
+        void add(String pattern) {
+            empty = false;
+            if (pattern.startsWith("regex:")) {
+                // Routed like a glob: without a '/' it only has to match the name
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher(pattern);
+                (pattern.contains("/") ? pathMatchers : nameMatchers).add(matcher);
+                return;
+            }
+            String glob = pattern.startsWith("glob:") ? pattern.substring(5) : pattern;
+            if (glob.contains("/")) {
+                pathMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+                return;
+            }
+
+            if (isLiteral(glob)) {
+                names.add(glob);
+            } else if (glob.endsWith("*") && isLiteral(glob.substring(0, glob.length() - 1))) {
+                prefixes.add(glob.substring(0, glob.length() - 1));
+            } else if (glob.startsWith("*") && isLiteral(glob.substring(1))) {
+                suffixes.add(glob.substring(1));
+            } else {
+                nameMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+            }
+        }
+
+        boolean isEmpty() {
+            return empty;
+        }
+
+        boolean matches(Path path, String name) {
+            if (empty) return false;
+            if (names.contains(name) || prefixes.matches(name) || suffixes.matches(name)) return true;
+            if (!nameMatchers.isEmpty()) {
+                Path fileName = path.getFileName();
+                for (PathMatcher matcher : nameMatchers) {
+                    if (matcher.matches(fileName)) return true;
+                }
+            }
+            for (PathMatcher matcher : pathMatchers) {
+                if (matcher.matches(path)) return true;
+            }
+            return false;
+        }
+
+        private static boolean isLiteral(String glob) {
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '*' || c == '?' || c == '[' || c == '{' || c == '\\') return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Trie of literal prefixes (or suffixes, read backwards). A name matches
+     * if any stored string is a prefix of it; lookup walks at most one path.
+     */
+    private static class CharTrie {
+        private final boolean reversed;
+        private final Node root = new Node();
+
+        CharTrie(boolean reversed) {
+            this.reversed = reversed;
+        }
+
+        void add(String text) {
+            Node node = root;
+            for (int i = 0; i < text.length(); i++) {
+                node = node.childOrCreate(text.charAt(reversed ? text.length() - 1 - i : i));
+            }
+            node.terminal = true;
+        }
+
+        boolean matches(String name) {
+            Node node = root;
+            int length = name.length();
+            for (int i = 0; ; i++) {
+                if (node.terminal) return true;
+                if (i == length) return false;
+                node = node.child(name.charAt(reversed ? length - 1 - i : i));
+                if (node == null) return false;
+            }
+        }
+
+        private static class Node {
+            char[] keys = new char[0];
+            Node[] children = new Node[0];
+            boolean terminal;
+
+            Node child(char c) {
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i] == c) return children[i];
+                }
+                return null;
+            }
+
+            Node childOrCreate(char c) {
+                Node existing = child(c);
+                if (existing != null) return existing;
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = c;
+                children[children.length - 1] = new Node();
+                return children[children.length - 1];
+            }
+        }
+    }
+}
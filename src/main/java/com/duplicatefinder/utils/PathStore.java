@@ -0,0 +1,81 @@
+package com.duplicatefinder.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only file of paths. The id of a path is its byte offset in the
+ * file, so sorted records can carry a single long instead of the path
+ * itself, and nothing but the write buffer is kept in memory.
+ * Lookups use positional reads and are safe from several threads.
+ */
+public class PathStore implements Closeable {
+    private static final int IO_BUFFER = 256 * 1024;
+
+    private final Path file;
+    private final DataOutputStream out;
+    private FileChannel channel;
+    private long position;
+
+    public PathStore(Path file) throws IOException {
+        this.file = file;
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), IO_BUFFER));
+    }
+
+    /**
+     * @return the id to pass to {@link #get(long)}
+     */
+    public synchronized long add(String path) throws IOException {
+        if (channel != null) throw new IllegalStateException("PathStore is already open for reading");
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        long id = position;
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        position += 4 + bytes.length;
+        return id;
+    }
+
+    /**
+     * Finish writing; after this only {@link #get(long)} may be called.
+     */
+    public synchronized void seal() throws IOException {
+        if (channel != null) return;
+        out.close();
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+    }
+
+    public String get(long id) throws IOException {
+        if (channel == null) throw new IllegalStateException("PathStore must be sealed before reading");
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(length, id);
+        ByteBuffer bytes = ByteBuffer.allocate(length.getInt(0));
+        readFully(bytes, id + 4);
+        return new String(bytes.array(), StandardCharsets.UTF_8);
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, offset + buffer.position());
+            if (n < 0) throw new EOFException("Path id beyond end of store");
+        }
+    }
+
+    public long sizeInBytes() {
+        return position;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        } else {
+            out.close();
+        }
+        Files.deleteIfExists(file);
+    }
+}
@@ -0,0 +1,42 @@
+package com.duplicatefinder.utils;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+
+public class PerceptualHash {
+
+    private static final int HASH_WIDTH = 9;
+    private static final int HASH_HEIGHT = 8;
+
+    /**
+     * Difference hash (dHash): shrink to 9x8 grayscale and record, for each
+     * row, whether every pixel is brighter than its right neighbour.
+     * Re-encoded, resized or slightly recolored copies keep nearly the same
+     * 64 bits, so similar images are a small Hamming distance apart.
+     */
+    public static long differenceHash(BufferedImage image) {
+        BufferedImage small = new BufferedImage(HASH_WIDTH, HASH_HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = small.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(image, 0, 0, HASH_WIDTH, HASH_HEIGHT, null);
+        g.dispose();
+
+        Raster raster = small.getRaster();
+        long hash = 0;
+        for (int y = 0; y < HASH_HEIGHT; y++) {
+            for (int x = 0; x < HASH_WIDTH - 1; x++) {
+                int left = raster.getSample(x, y, 0);
+                int right = raster.getSample(x + 1, y, 0);
+                hash = (hash << 1) | (left > right ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    public static String toHex(long hash) {
+        return String.format("%016x", hash);
+    }
+}
@@ -0,0 +1,168 @@
+package com.duplicatefinder.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32 that skips the arithmetic over all-zero chunks, such as the holes
+ * of sparse disk images and preallocated database files.
+ *
+ * Appending n zero bytes to a CRC is a multiplication by x^(8n) modulo the
+ * CRC polynomial, which takes a few dozen steps whatever n is (the method
+ * zlib uses in crc32_combine). Chunks of data go through {@link CRC32} as
+ * usual and are joined on the same way, so the value is always exactly the
+ * plain CRC32 of the bytes and can be compared with, or stored next to,
+ * values from {@link CRC32}.
+ *
+ * Not thread-safe, like {@link CRC32}.
+ */
+public class SparseCrc32 implements Checksum {
+
+    // Reflected CRC-32 polynomial
+    private static final int POLY = 0xEDB88320;
+    // X2N[k] is x^(2^k) modulo the polynomial
+    private static final int[] X2N = new int[32];
+    private static final byte[] ZEROS = new byte[64 * 1024];
+    private static final ByteBuffer ZERO_BUFFER = ByteBuffer.allocateDirect(ZEROS.length).asReadOnlyBuffer();
+
+    static {
+        int p = 1 << 30;
+        X2N[0] = p;
+        for (int k = 1; k < X2N.length; k++) {
+            X2N[k] = p = multiply(p, p);
+        }
+    }
+
+    // CRC of everything before the current run of data
+    private int prefix;
+    private final CRC32 run = new CRC32();
+    private long runLength;
+    // x^(8 * lastLength), kept because most runs are one read buffer long
+    private long lastLength = -1;
+    private int lastPower;
+
+    @Override
+    public void update(int b) {
+        run.update(b);
+        runLength++;
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        if (len > 0 && isAllZero(b, off, len)) {
+            updateZeros(len);
+            return;
+        }
+        run.update(b, off, len);
+        runLength += len;
+    }
+
+    /**
+     * Reads the buffer's remaining bytes, direct or heap, leaving it at its limit.
+     */
+    @Override
+    public void update(ByteBuffer buffer) {
+        int len = buffer.remaining();
+        if (len > 0 && isAllZero(buffer)) {
+            buffer.position(buffer.limit());
+            updateZeros(len);
+            return;
+        }
+        run.update(buffer);
+        runLength += len;
+    }
+
+    /**
+     * Add count zero bytes without going over them.
+     */
+    public void updateZeros(long count) {
+        if (count <= 0) return;
+        prefix = (int) combined();
+        run.reset();
+        runLength = 0;
+        // The CRC register is the complement of the value; zeros multiply the register
+        prefix = ~multiply(power(count), ~prefix);
+    }
+
+    @Override
+    public long getValue() {
+        return combined();
+    }
+
+    @Override
+    public void reset() {
+        reset(0);
+    }
+
+    /**
+     * Start over from a CRC value, as if the bytes it covers had just been read.
+     */
+    public void reset(long value) {
+        prefix = (int) value;
+        run.reset();
+        runLength = 0;
+    }
+
+    /**
+     * @return true if the range holds only zero bytes
+     */
+    public static boolean isAllZero(byte[] b, int off, int len) {
+        for (int end = off + len; off < end; off += ZEROS.length) {
+            int chunk = Math.min(ZEROS.length, end - off);
+            if (Arrays.mismatch(b, off, off + chunk, ZEROS, 0, chunk) >= 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the buffer's remaining bytes are all zero; its position is unchanged
+     */
+    public static boolean isAllZero(ByteBuffer buffer) {
+        int position = buffer.position();
+        for (int from = position; from < buffer.limit(); from += ZEROS.length) {
+            int chunk = Math.min(ZEROS.length, buffer.limit() - from);
+            if (buffer.slice(from, chunk).mismatch(ZERO_BUFFER.slice(0, chunk)) >= 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * CRC of the prefix followed by the current run, joined as zlib's crc32_combine does.
+     */
+    private long combined() {
+        if (runLength == 0) return prefix & 0xFFFFFFFFL;
+        return (multiply(power(runLength), prefix) ^ (int) run.getValue()) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return x^(8 * bytes) modulo the polynomial
+     */
+    private int power(long bytes) {
+        if (bytes == lastLength) return lastPower;
+        int p = 1 << 31;
+        int k = 3;
+        for (long n = bytes; n != 0; n >>>= 1, k++) {
+            if ((n & 1) != 0) p = multiply(X2N[k & 31], p);
+        }
+        lastLength = bytes;
+        lastPower = p;
+        return p;
+    }
+
+    /**
+     * Multiply two polynomials modulo the CRC polynomial, in the reflected bit order CRC32 uses.
+     */
+    private static int multiply(int a, int b) {
+        int product = 0;
+        for (int m = 1 << 31; m != 0; m >>>= 1) {
+            if ((a & m) != 0) {
+                product ^= b;
+                if ((a & (m - 1)) == 0) break;
+            }
+            b = (b & 1) != 0 ? (b >>> 1) ^ POLY : b >>> 1;
+        }
+        return product;
+    }
+}
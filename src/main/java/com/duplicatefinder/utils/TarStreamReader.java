@@ -0,0 +1,173 @@
+package com.duplicatefinder.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal streaming reader for ustar/GNU tar archives.
+ * Entries are read in order straight from the stream, so a .tar.gz can be
+ * scanned through a GZIPInputStream without extracting anything to disk.
+ */
+public class TarStreamReader {
+    private static final int BLOCK = 512;
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK];
+    private long remaining;
+    private long padding;
+
+    public TarStreamReader(InputStream in) {
+        this.in = in;
+    }
+
+    public static class Entry {
+        public final String name;
+        public final long size;
+        public final long modifiedMillis;
+
+        Entry(String name, long size, long modifiedMillis) {
+            this.name = name;
+            this.size = size;
+            this.modifiedMillis = modifiedMillis;
+        }
+    }
+
+    /**
+     * Skip whatever is left of the current entry and return the next regular
+     * file entry, or null at the end of the archive.
+     */
+    public Entry nextEntry() throws IOException {
+        skipRemaining();
+        String longName = null;
+
+        while (true) {
+            if (!readBlock(header)) return null;
+            if (isZeroBlock(header)) return null;
+
+            String name = readString(header, 0, 100);
+            long size = readOctal(header, 124, 12);
+            long mtime = readOctal(header, 136, 12) * 1000;
+            char type = (char) header[156];
+            String prefix = readString(header, 345, 155);
+            if (!prefix.isEmpty() && isUstar(header)) {
+                name = prefix + "/" + name;
+            }
+
+            remaining = size;
+            padding = (BLOCK - size % BLOCK) % BLOCK;
+
+            if (type == 'L') {
+                // GNU long name: the data of this entry is the name of the next one
+                byte[] data = readData((int) size);
+                longName = new String(data, StandardCharsets.UTF_8).replace("\0", "");
+                continue;
+            }
+            if (type == '0' || type == '\0' || type == '7') {
+                return new Entry(longName != null ? longName : name, size, mtime);
+            }
+
+            // Directories, links, pax headers: nothing to hash
+            longName = null;
+            skipRemaining();
+        }
+    }
+
+    /**
+     * Stream over the data of the current entry, ending at its last byte.
+     */
+    public InputStream entryStream() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) return -1;
+                int b = in.read();
+                if (b < 0) throw new EOFException("Truncated tar entry");
+                remaining--;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) return -1;
+                int n = in.read(b, off, (int) Math.min(len, remaining));
+                if (n < 0) throw new EOFException("Truncated tar entry");
+                remaining -= n;
+                return n;
+            }
+        };
+    }
+
+    private byte[] readData(int size) throws IOException {
+        byte[] data = in.readNBytes(size);
+        if (data.length < size) throw new EOFException("Truncated tar entry");
+        remaining = 0;
+        skipFully(padding);
+        padding = 0;
+        return data;
+    }
+
+    private void skipRemaining() throws IOException {
+        skipFully(remaining + padding);
+        remaining = 0;
+        padding = 0;
+    }
+
+    private void skipFully(long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new EOFException("Truncated tar archive");
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private boolean readBlock(byte[] block) throws IOException {
+        int n = in.readNBytes(block, 0, BLOCK);
+        if (n == 0) return false;
+        if (n < BLOCK) throw new EOFException("Truncated tar header");
+        return true;
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) return false;
+        }
+        return true;
+    }
+
+    private static boolean isUstar(byte[] block) {
+        return block[257] == 'u' && block[258] == 's' && block[259] == 't'
+                && block[260] == 'a' && block[261] == 'r';
+    }
+
+    private static String readString(byte[] block, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && block[end] != 0) end++;
+        return new String(block, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static long readOctal(byte[] block, int offset, int length) {
+        // GNU base-256 encoding for values that do not fit in octal
+        if ((block[offset] & 0x80) != 0) {
+            long value = block[offset] & 0x7F;
+            for (int i = 1; i < length; i++) {
+                value = (value << 8) | (block[offset + i] & 0xFF);
+            }
+            return value;
+        }
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = block[i];
+            if (b == 0 || b == ' ') {
+                if (value > 0) break;
+                continue;
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,52 @@
+package com.duplicatefinder.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * LEB128-style variable-length integers: 7 bits per byte, high bit set on
+ * every byte but the last. Small values (sizes, deltas, lengths) take 1-3 bytes.
+ */
+public class VarIntCodec {
+
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+            shift += 7;
+            if (shift > 63) throw new IOException("Malformed varint");
+        }
+    }
+
+    /**
+     * Write a string as the length shared with the previous string plus the new suffix.
+     * Sorted or clustered paths usually share long directory prefixes.
+     */
+    public static void writePrefixed(DataOutput out, String previous, String value) throws IOException {
+        int shared = 0;
+        int max = Math.min(previous.length(), value.length());
+        while (shared < max && previous.charAt(shared) == value.charAt(shared)) shared++;
+        // Never split a surrogate pair between prefix and suffix
+        if (shared > 0 && Character.isHighSurrogate(value.charAt(shared - 1))) shared--;
+        writeVarLong(out, shared);
+        out.writeUTF(value.substring(shared));
+    }
+
+    public static String readPrefixed(DataInput in, String previous) throws IOException {
+        int shared = (int) readVarLong(in);
+        if (shared > previous.length()) throw new IOException("Malformed prefix length");
+        return previous.substring(0, shared) + in.readUTF();
+    }
+}
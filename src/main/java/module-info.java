@@ -1,7 +1,12 @@
+// H2 ships no module descriptor, only an Automatic-Module-Name; it is the only automatic module required
+@SuppressWarnings("requires-automatic")
 module com.duplicatefilefinder.duplicatefilefinder {
     requires javafx.controls;
     requires javafx.fxml;
     requires java.desktop;
+    requires jdk.zipfs;
+    requires java.sql;
+    requires com.h2database;
     requires org.controlsfx.controls;
     requires org.kordamp.ikonli.fontawesome;
     requires org.kordamp.ikonli.core;
@@ -18,4 +23,5 @@ module com.duplicatefilefinder.duplicatefilefinder {
     opens com.duplicatefinder.controllers to javafx.fxml;
     exports com.duplicatefinder.services;
     opens com.duplicatefinder.services to javafx.fxml;
+    exports com.duplicatefinder.cli;
 }
\ No newline at end of file